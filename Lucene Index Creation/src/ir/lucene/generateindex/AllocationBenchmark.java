@@ -0,0 +1,129 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.SerialMergeScheduler;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to measure the bytes allocated per indexed doc, with new Documents for every doc and with
+ * reused Documents. Building is parsing and creating the Document only, indexing also adds it to
+ * an IndexWriter. Flushes and merges run in the indexing thread so that they are counted too.
+ * Every measurement is done after a warm up run over the same files.
+ */
+public class AllocationBenchmark
+{
+	private com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/*
+	 * Method to get the bytes allocated per doc when documents of the files are only built
+	 */
+	public double measureBuild(GenerateIndex indexer, Analyzer analyzer, File[] files) throws IOException
+	{
+		buildDocs(indexer, analyzer, files);
+
+		long before = getAllocatedBytes();
+		long docs = buildDocs(indexer, analyzer, files);
+		return (getAllocatedBytes() - before) / (double) docs;
+	}
+
+	/*
+	 * Method to get the bytes allocated per doc when documents of the files are indexed into a RAMDirectory
+	 */
+	public double measureIndex(GenerateIndex indexer, Analyzer analyzer, File[] files) throws IOException
+	{
+		indexDocs(indexer, analyzer, files);
+
+		long before = getAllocatedBytes();
+		long docs = indexDocs(indexer, analyzer, files);
+		return (getAllocatedBytes() - before) / (double) docs;
+	}
+
+	private long buildDocs(GenerateIndex indexer, Analyzer analyzer, File[] files) throws IOException
+	{
+		long docs = 0;
+		for (File file: files)
+		{
+			TrecCorpusReader corpus = new TrecCorpusReader(file);
+			try
+			{
+				while (corpus.nextDoc())
+				{
+					indexer.createDoc(corpus.getDoc(), analyzer);
+					docs++;
+				}
+			}
+			finally
+			{
+				corpus.close();
+			}
+		}
+		return docs;
+	}
+
+	private long indexDocs(GenerateIndex indexer, Analyzer analyzer, File[] files) throws IOException
+	{
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+		iwc.setMergeScheduler(new SerialMergeScheduler());
+
+		RAMDirectory dir = new RAMDirectory();
+		IndexWriter indexwriter = new IndexWriter(dir, iwc);
+		try
+		{
+			for (File file: files)
+			{
+				indexer.indexFile(indexwriter, file.getPath());
+			}
+			indexwriter.commit();
+			return indexwriter.numDocs();
+		}
+		finally
+		{
+			indexwriter.close();
+			dir.close();
+		}
+	}
+
+	private long getAllocatedBytes()
+	{
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int sampleSize = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SAMPLE_SIZE;
+		String corpus_dir = (args.length > 1) ? args[1] : GenerateIndex.CORPUS_DIR;
+
+		File[] files = new File(corpus_dir).listFiles();
+		Arrays.sort(files);
+		File[] sample = Arrays.copyOf(files, Math.min(sampleSize, files.length));
+
+		AllocationBenchmark benchmark = new AllocationBenchmark();
+		Analyzer analyzer = new StandardAnalyzer();
+
+		for (boolean reuse: new boolean[] {false, true})
+		{
+			GenerateIndex indexer = new GenerateIndex();
+			indexer.setReuseDocuments(reuse);
+
+			String mode = reuse ? "reused documents" : "new documents";
+			System.out.println(String.format("%-16s build: %10.0f bytes/doc, index: %10.0f bytes/doc", mode,
+					benchmark.measureBuild(indexer, analyzer, sample), benchmark.measureIndex(indexer, analyzer, sample)));
+		}
+	}
+
+	public static final int DEFAULT_SAMPLE_SIZE = 20;
+}
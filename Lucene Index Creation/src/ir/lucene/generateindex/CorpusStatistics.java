@@ -0,0 +1,478 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/*
+ * Class to collect statistics of indexed fields with one pass over their terms and doc lengths:
+ * vocabulary size, df and ttf histograms, the top terms by df and the doc length histogram.
+ * The term dictionary is split by the first byte of the terms into ranges which are walked in parallel
+ * (walking segments separately would count a term once per segment), doc lengths are read per segment
+ * in parallel. Histograms use power of two buckets: bucket b holds values in [2^(b-1), 2^b), bucket 0 holds 0.
+ */
+public class CorpusStatistics
+{
+	private int numThreads = 0;
+	private int topN = 0;
+
+	public CorpusStatistics(int numThreads, int topN)
+	{
+		this.numThreads = numThreads;
+		this.topN = topN;
+	}
+
+	/*
+	 * Method to collect statistics of all the fields
+	 */
+	public List<FieldStats> collect(IndexReader reader, String... fields) throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<FieldStats> allStats = new ArrayList<FieldStats>();
+		try
+		{
+			for (String field: fields)
+			{
+				allStats.add(collect(pool, reader, field));
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		return allStats;
+	}
+
+	private FieldStats collect(ExecutorService pool, final IndexReader reader, final String field) throws IOException
+	{
+		FieldStats stats = new FieldStats(field, topN);
+		stats.maxDoc = reader.maxDoc();
+
+		Terms terms = MultiFields.getTerms(reader, field);
+		if (null == terms)
+		{
+			return stats;
+		}
+		stats.docCount = terms.getDocCount();
+		stats.sumTotalTermFreq = terms.getSumTotalTermFreq();
+		stats.sumDocFreq = terms.getSumDocFreq();
+
+		List<Future<FieldStats>> results = new ArrayList<Future<FieldStats>>();
+
+		// one task per first byte of the terms
+		for (int b = 0; b < 256; b++)
+		{
+			final int firstByte = b;
+			results.add(pool.submit(new Callable<FieldStats>()
+			{
+				@Override
+				public FieldStats call() throws IOException
+				{
+					return collectTerms(reader, field, firstByte);
+				}
+			}));
+		}
+
+		// one task per segment for doc lengths
+		for (final AtomicReaderContext leafContext: reader.leaves())
+		{
+			results.add(pool.submit(new Callable<FieldStats>()
+			{
+				@Override
+				public FieldStats call() throws IOException
+				{
+					return collectLengths(leafContext.reader(), field);
+				}
+			}));
+		}
+
+		try
+		{
+			for (Future<FieldStats> result: results)
+			{
+				stats.add(result.get());
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new IOException(ex.getCause());
+		}
+		return stats;
+	}
+
+	/*
+	 * Method to walk the terms of field which start with firstByte
+	 */
+	public FieldStats collectTerms(IndexReader reader, String field, int firstByte) throws IOException
+	{
+		FieldStats stats = new FieldStats(field, topN);
+
+		TermsEnum iterator = MultiFields.getTerms(reader, field).iterator(null);
+		// the range of first byte 0 also holds the empty term
+		BytesRef start = (firstByte == 0) ? new BytesRef() : new BytesRef(new byte[] {(byte) firstByte});
+		if (TermsEnum.SeekStatus.END == iterator.seekCeil(start))
+		{
+			return stats;
+		}
+
+		BytesRef term = iterator.term();
+		while (null != term && getFirstByte(term) == firstByte)
+		{
+			int df = iterator.docFreq();
+			long ttf = iterator.totalTermFreq();
+
+			stats.vocabularySize++;
+			stats.dfHistogram[bucket(df)]++;
+			if (ttf >= 0)
+			{
+				stats.ttfHistogram[bucket(ttf)]++;
+			}
+			stats.offerTerm(term, df, ttf);
+
+			term = iterator.next();
+		}
+		return stats;
+	}
+
+	/*
+	 * Method to build the histogram of doc lengths of field in one segment, from the exact length
+	 * column when there is one and from the norms otherwise
+	 */
+	public FieldStats collectLengths(AtomicReader leafReader, String field) throws IOException
+	{
+		FieldStats stats = new FieldStats(field, 0);
+
+		NumericDocValues lengths = leafReader.getNumericDocValues(field + LENGTH_FIELD_SUFFIX);
+		NumericDocValues norms = leafReader.getNormValues(field);
+		if (null == lengths && null == norms)
+		{
+			return stats;
+		}
+		stats.exactLengths = (null != lengths);
+
+		DefaultSimilarity dsimi = new DefaultSimilarity();
+		Bits liveDocs = leafReader.getLiveDocs();
+
+		for (int doc = 0; doc < leafReader.maxDoc(); doc++)
+		{
+			if (null != liveDocs && !liveDocs.get(doc))
+			{
+				continue;
+			}
+
+			long length = 0;
+			if (null != lengths)
+			{
+				length = lengths.get(doc);
+			}
+			else
+			{
+				// norm is 1/sqrt(length)
+				float norm = dsimi.decodeNormValue(norms.get(doc));
+				length = Math.round(1 / (norm * norm));
+			}
+			stats.lengthHistogram[bucket(length)]++;
+			stats.maxLength = Math.max(stats.maxLength, length);
+		}
+		return stats;
+	}
+
+	/*
+	 * Method to write statistics as tab separated lines: field, statistic, key, value
+	 */
+	public void writeTSV(List<FieldStats> allStats, PrintStream out)
+	{
+		for (FieldStats stats: allStats)
+		{
+			String f = stats.field;
+			out.println(f + "\tmaxDoc\t\t" + stats.maxDoc);
+			out.println(f + "\tdocCount\t\t" + stats.docCount);
+			out.println(f + "\tvocabularySize\t\t" + stats.vocabularySize);
+			out.println(f + "\tsumTotalTermFreq\t\t" + stats.sumTotalTermFreq);
+			out.println(f + "\tsumDocFreq\t\t" + stats.sumDocFreq);
+			out.println(f + "\tmaxLength\t\t" + stats.maxLength);
+			out.println(f + "\texactLengths\t\t" + stats.exactLengths);
+			writeHistogramTSV(out, f, "dfHistogram", stats.dfHistogram);
+			writeHistogramTSV(out, f, "ttfHistogram", stats.ttfHistogram);
+			writeHistogramTSV(out, f, "lengthHistogram", stats.lengthHistogram);
+			for (TermStat ts: stats.getTopTerms())
+			{
+				out.println(f + "\ttopTerm\t" + ts.term + "\t" + ts.df + "\t" + ts.ttf);
+			}
+		}
+	}
+
+	private void writeHistogramTSV(PrintStream out, String field, String name, long[] histogram)
+	{
+		for (int b = 0; b < histogram.length; b++)
+		{
+			if (histogram[b] > 0)
+			{
+				out.println(field + "\t" + name + "\t" + bucketLabel(b) + "\t" + histogram[b]);
+			}
+		}
+	}
+
+	/*
+	 * Method to write statistics as a JSON object with one member per field
+	 */
+	public void writeJSON(List<FieldStats> allStats, PrintStream out)
+	{
+		out.println("{");
+		for (int i = 0; i < allStats.size(); i++)
+		{
+			FieldStats stats = allStats.get(i);
+			out.println("  " + quote(stats.field) + ": {");
+			out.println("    \"maxDoc\": " + stats.maxDoc + ",");
+			out.println("    \"docCount\": " + stats.docCount + ",");
+			out.println("    \"vocabularySize\": " + stats.vocabularySize + ",");
+			out.println("    \"sumTotalTermFreq\": " + stats.sumTotalTermFreq + ",");
+			out.println("    \"sumDocFreq\": " + stats.sumDocFreq + ",");
+			out.println("    \"maxLength\": " + stats.maxLength + ",");
+			out.println("    \"exactLengths\": " + stats.exactLengths + ",");
+			out.println("    \"dfHistogram\": " + histogramJSON(stats.dfHistogram) + ",");
+			out.println("    \"ttfHistogram\": " + histogramJSON(stats.ttfHistogram) + ",");
+			out.println("    \"lengthHistogram\": " + histogramJSON(stats.lengthHistogram) + ",");
+
+			StringBuilder sb = new StringBuilder("    \"topTerms\": [");
+			List<TermStat> topTerms = stats.getTopTerms();
+			for (int t = 0; t < topTerms.size(); t++)
+			{
+				TermStat ts = topTerms.get(t);
+				sb.append(t > 0 ? ", " : "").append("{\"term\": ").append(quote(ts.term))
+					.append(", \"df\": ").append(ts.df).append(", \"ttf\": ").append(ts.ttf).append("}");
+			}
+			out.println(sb.append("]"));
+			out.println((i < allStats.size() - 1) ? "  }," : "  }");
+		}
+		out.println("}");
+	}
+
+	private String histogramJSON(long[] histogram)
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for (int b = 0; b < histogram.length; b++)
+		{
+			if (histogram[b] > 0)
+			{
+				sb.append(sb.length() > 1 ? ", " : "").append(quote(bucketLabel(b))).append(": ").append(histogram[b]);
+			}
+		}
+		return sb.append("}").toString();
+	}
+
+	private static String quote(String s)
+	{
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				sb.append('\\').append(c);
+			}
+			else if (c < ' ')
+			{
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static int getFirstByte(BytesRef term)
+	{
+		return (term.length == 0) ? 0 : (term.bytes[term.offset] & 0xff);
+	}
+
+	public static int bucket(long value)
+	{
+		return (value <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	public static String bucketLabel(int b)
+	{
+		return (b == 0) ? "0" : (1L << (b - 1)) + "-" + ((1L << b) - 1);
+	}
+
+	/*
+	 * Statistics of one field, tasks fill partial statistics which are added together
+	 */
+	public static class FieldStats
+	{
+		public String field = null;
+		public int maxDoc = 0;
+		public int docCount = 0;
+		public long sumTotalTermFreq = 0;
+		public long sumDocFreq = 0;
+		public long vocabularySize = 0;
+		public long maxLength = 0;
+		public boolean exactLengths = false;
+		public long[] dfHistogram = new long[65];
+		public long[] ttfHistogram = new long[65];
+		public long[] lengthHistogram = new long[65];
+
+		private int topN = 0;
+		// min heap of the terms with highest df
+		private PriorityQueue<TermStat> topTerms = null;
+
+		public FieldStats(String field, int topN)
+		{
+			this.field = field;
+			this.topN = topN;
+			topTerms = new PriorityQueue<TermStat>(Math.max(1, topN), DF_ORDER);
+		}
+
+		public void offerTerm(BytesRef term, int df, long ttf)
+		{
+			if (topN == 0)
+			{
+				return;
+			}
+			if (topTerms.size() < topN)
+			{
+				topTerms.add(new TermStat(term.utf8ToString(), df, ttf));
+			}
+			else if (topTerms.peek().df < df)
+			{
+				// term is only decoded when it makes it into the top terms
+				topTerms.poll();
+				topTerms.add(new TermStat(term.utf8ToString(), df, ttf));
+			}
+		}
+
+		public void add(FieldStats other)
+		{
+			vocabularySize += other.vocabularySize;
+			maxLength = Math.max(maxLength, other.maxLength);
+			exactLengths |= other.exactLengths;
+			for (int b = 0; b < dfHistogram.length; b++)
+			{
+				dfHistogram[b] += other.dfHistogram[b];
+				ttfHistogram[b] += other.ttfHistogram[b];
+				lengthHistogram[b] += other.lengthHistogram[b];
+			}
+			for (TermStat ts: other.topTerms)
+			{
+				if (topTerms.size() < topN)
+				{
+					topTerms.add(ts);
+				}
+				else if (topTerms.peek().df < ts.df)
+				{
+					topTerms.poll();
+					topTerms.add(ts);
+				}
+			}
+		}
+
+		/*
+		 * Method to get the top terms with highest df first
+		 */
+		public List<TermStat> getTopTerms()
+		{
+			List<TermStat> terms = new ArrayList<TermStat>(topTerms);
+			Collections.sort(terms, Collections.reverseOrder(DF_ORDER));
+			return terms;
+		}
+	}
+
+	public static class TermStat
+	{
+		public String term = null;
+		public int df = 0;
+		public long ttf = 0;
+
+		public TermStat(String term, int df, long ttf)
+		{
+			this.term = term;
+			this.df = df;
+			this.ttf = ttf;
+		}
+	}
+
+	private static final Comparator<TermStat> DF_ORDER = new Comparator<TermStat>()
+	{
+		@Override
+		public int compare(TermStat t1, TermStat t2)
+		{
+			if (t1.df != t2.df)
+			{
+				return (t1.df < t2.df) ? -1 : 1;
+			}
+			// on equal df the smaller term ranks higher
+			return t2.term.compareTo(t1.term);
+		}
+	};
+
+	/*
+	 * Usage: CorpusStatistics <index dir> [tsv|json] [top n] [field...]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String index_dir = (args.length > 0) ? args[0] : GenerateIndex.STD_ANALYZER_INDEX_DIR;
+		String format = (args.length > 1) ? args[1] : "tsv";
+		int topN = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_TOP_N;
+		String[] fields = {"TEXT"};
+		if (args.length > 3)
+		{
+			fields = new String[args.length - 3];
+			System.arraycopy(args, 3, fields, 0, fields.length);
+		}
+
+		IndexReader reader = ShardedIndexer.openReader(index_dir);
+		try
+		{
+			CorpusStatistics statistics = new CorpusStatistics(Runtime.getRuntime().availableProcessors(), topN);
+			List<FieldStats> allStats = statistics.collect(reader, fields);
+			if ("json".equals(format))
+			{
+				statistics.writeJSON(allStats, System.out);
+			}
+			else
+			{
+				statistics.writeTSV(allStats, System.out);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	public static final int DEFAULT_TOP_N = 100;
+
+	// suffix of the doc values column with the exact length of a field, see GenerateIndex.TEXT_LENGTH_FIELD
+	public static final String LENGTH_FIELD_SUFFIX = "_LENGTH";
+}
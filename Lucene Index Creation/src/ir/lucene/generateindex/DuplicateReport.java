@@ -0,0 +1,103 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to measure what duplicate suppression saves: a sample of the corpus is indexed without and with
+ * a NearDuplicateDetector, and index size, postings and the latency of the same queries are compared.
+ * Queries are pairs of the most frequent TEXT terms of the index without suppression (see IndexBenchmark).
+ */
+public class DuplicateReport
+{
+	/*
+	 * Method to index the files into index_dir, duplicates are handled by the detector if it is not null
+	 */
+	public void buildIndex(Analyzer analyzer, File[] files, String index_dir, NearDuplicateDetector detector) throws IOException
+	{
+		GenerateIndex indexer = new GenerateIndex();
+		indexer.setReuseDocuments(true);
+		indexer.setDuplicateDetector(detector);
+
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+
+		IndexWriter indexwriter = new IndexWriter(FSDirectory.open(new File(index_dir)), iwc);
+		try
+		{
+			for (File file: files)
+			{
+				indexer.indexFile(indexwriter, file.getPath());
+			}
+			// one segment in both indexes, so that latency only depends on the postings
+			indexwriter.forceMerge(1);
+		}
+		finally
+		{
+			indexwriter.close();
+		}
+	}
+
+	/*
+	 * Usage: DuplicateReport [SKIP|COLLAPSE|TAG] [number of files] [temp dir]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		NearDuplicateDetector.Policy policy = (args.length > 0) ? NearDuplicateDetector.Policy.valueOf(args[0]) : NearDuplicateDetector.Policy.SKIP;
+		int sampleSize = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SAMPLE_SIZE;
+		String temp_dir = (args.length > 2) ? args[2] : System.getProperty("java.io.tmpdir");
+
+		File[] files = new File(GenerateIndex.CORPUS_DIR).listFiles();
+		Arrays.sort(files);
+		File[] sample = Arrays.copyOf(files, Math.min(sampleSize, files.length));
+
+		DuplicateReport report = new DuplicateReport();
+		Analyzer analyzer = new StandardAnalyzer();
+		String[] index_dirs = {new File(temp_dir, "dup-all").getPath(), new File(temp_dir, "dup-" + policy.name().toLowerCase()).getPath()};
+
+		NearDuplicateDetector detector = new NearDuplicateDetector(policy);
+		report.buildIndex(analyzer, sample, index_dirs[0], null);
+		report.buildIndex(analyzer, sample, index_dirs[1], detector);
+		detector.printReport();
+
+		IndexReader[] readers = new IndexReader[index_dirs.length];
+		for (int i = 0; i < index_dirs.length; i++)
+		{
+			readers[i] = DirectoryReader.open(FSDirectory.open(new File(index_dirs[i])));
+		}
+		List<Query> queries = IndexBenchmark.getQueries(readers[0], IndexBenchmark.NUM_QUERIES);
+
+		String[] names = {"all docs", policy.name().toLowerCase()};
+		long[] sizes = new long[readers.length];
+		double[] latencies = new double[readers.length];
+		for (int i = 0; i < readers.length; i++)
+		{
+			sizes[i] = IndexBenchmark.getDirectorySize(((DirectoryReader) readers[i]).directory());
+			latencies[i] = IndexBenchmark.measureLatency(readers[i], queries, IndexBenchmark.ROUNDS);
+			System.out.println(String.format("%-9s %8d docs, %10d postings, %8.1f MB, %8.1f us/query", names[i], readers[i].numDocs(),
+					MultiFields.getTerms(readers[i], "TEXT").getSumDocFreq(), sizes[i] / 1e6, latencies[i]));
+			readers[i].close();
+		}
+		System.out.println(String.format("Saved %.1f%% of index size and %.1f%% of query latency",
+				100.0 * (sizes[0] - sizes[1]) / sizes[0], 100.0 * (latencies[0] - latencies[1]) / latencies[0]));
+	}
+
+	public static final int DEFAULT_SAMPLE_SIZE = 100;
+}
@@ -3,20 +3,18 @@
  */
 package ir.lucene.generateindex;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
@@ -24,10 +22,11 @@ import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.lucene.util.Version;
 
 /*
@@ -35,22 +34,331 @@ import org.apache.lucene.util.Version;
  */
 public class GenerateIndex 
 {	
-	private BufferedReader br = null;
+	// extra tags which are indexed along with the default trectext tags
+	private String[] extraTags = new String[0];
+
+	// parser is not thread-safe, so every indexing thread has its own
+	private ThreadLocal<TrecDocParser> parsers = new ThreadLocal<TrecDocParser>();
+	private ThreadLocal<TextLengthCounter> counters = new ThreadLocal<TextLengthCounter>();
+
+	// when set, every thread fills the same Document and Fields for each doc instead of creating new ones
+	private boolean reuseDocuments = false;
+	private ThreadLocal<ReusableDocument> documents = new ThreadLocal<ReusableDocument>();
+
+	// metrics of indexing phases, not measured when null
+	private IndexingMetrics metrics = null;
+
+	// duplicates are indexed like other docs when null
+	private NearDuplicateDetector duplicateDetector = null;
+
+	public void setDuplicateDetector(NearDuplicateDetector duplicateDetector)
+	{
+		this.duplicateDetector = duplicateDetector;
+	}
+
+	// HEAD is also written as a doc values column, DOCNO always is
+	private boolean headDocValues = false;
+
+	public void setHeadDocValues(boolean headDocValues)
+	{
+		this.headDocValues = headDocValues;
+		documents = new ThreadLocal<ReusableDocument>();
+	}
+
+	// TEXT is analyzed a second time to write its exact length and unique terms as doc values columns.
+	// Off by default, searches then use the lossy length of the norms.
+	private boolean exactLengths = false;
+
+	/*
+	 * Method to write the exact length of TEXT, at the cost of a second analysis of every TEXT
+	 */
+	public void setExactLengths(boolean exactLengths)
+	{
+		this.exactLengths = exactLengths;
+		documents = new ThreadLocal<ReusableDocument>();
+	}
+
+	// what is stored of TEXT
+	private StorageProfile storageProfile = StorageProfile.FULL;
+	private ThreadLocal<TextCompressor> compressors = new ThreadLocal<TextCompressor>();
+
+	public void setStorageProfile(StorageProfile storageProfile)
+	{
+		this.storageProfile = storageProfile;
+		documents = new ThreadLocal<ReusableDocument>();
+	}
+
+	public StorageProfile getStorageProfile()
+	{
+		return storageProfile;
+	}
+
+	// number of segments indexData merges the index down to after it is built, 0 to keep the segments
+	private int targetSegments = 0;
+
+	public void setTargetSegments(int targetSegments)
+	{
+		this.targetSegments = targetSegments;
+	}
+
+	public void setMetrics(IndexingMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	public IndexingMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/*
+	 * Method to set additional tags to extract from each doc, they are indexed like HEAD
+	 */
+	public void setExtraTags(String... extraTags)
+	{
+		this.extraTags = extraTags;
+		parsers = new ThreadLocal<TrecDocParser>();
+		documents = new ThreadLocal<ReusableDocument>();
+	}
+
+	/*
+	 * Method to reuse one Document per thread for all docs. A Document returned by createDoc is then only
+	 * valid until the next call of createDoc in the same thread, so it has to be added to the index before.
+	 */
+	public void setReuseDocuments(boolean reuseDocuments)
+	{
+		this.reuseDocuments = reuseDocuments;
+	}
+
+	public TrecDocParser getParser()
+	{
+		TrecDocParser parser = parsers.get();
+		if (null == parser)
+		{
+			String[] tags = new String[DOC_TAGS.length + extraTags.length];
+			System.arraycopy(DOC_TAGS, 0, tags, 0, DOC_TAGS.length);
+			System.arraycopy(extraTags, 0, tags, DOC_TAGS.length, extraTags.length);
+			parser = new TrecDocParser(tags);
+			parsers.set(parser);
+		}
+		return parser;
+	}
+
+	public TextLengthCounter getLengthCounter()
+	{
+		TextLengthCounter counter = counters.get();
+		if (null == counter)
+		{
+			counter = new TextLengthCounter();
+			counters.set(counter);
+		}
+		return counter;
+	}
+
+	public TextCompressor getCompressor()
+	{
+		TextCompressor compressor = compressors.get();
+		if (null == compressor)
+		{
+			compressor = new TextCompressor();
+			compressors.set(compressor);
+		}
+		return compressor;
+	}
 
 	/*
 	 *  Method to index document in corpus
 	 */
-	public void addDoc(IndexWriter iw, String data) throws IOException
+	public void addDoc(IndexWriter iw, CharSequence data) throws IOException
 	{
+		  Document doc = createDoc(data, iw.getAnalyzer());
+
+		  if (null != duplicateDetector && null == (doc = duplicateDetector.apply(doc)))
+		  {
+			  // duplicate which is not indexed
+			  return;
+		  }
+
+		  long start = System.nanoTime();
+		  iw.addDocument(doc);
+		  if (null != metrics)
+		  {
+			  metrics.add(IndexingMetrics.Phase.ADD_DOCUMENT, System.nanoTime() - start);
+			  metrics.addDoc(data.length());
+		  }
+	}
+
+	/*
+	 *  Method to create lucene doc from the content of <DOC></DOC>.
+	 *  The analyzer has to be the one of the IndexWriter, it is used to count the exact length of TEXT.
+	 */
+	public Document createDoc(CharSequence data, Analyzer analyzer) throws IOException
+	{
+		  long start = System.nanoTime();
+		  TrecDocParser parser = getParser();
+		  parser.parse(data);
+
+		  if (reuseDocuments)
+		  {
+			  return fillDoc(parser, analyzer, start);
+		  }
+
 		  Document doc = new Document();
 
-		  doc.add(new StringField("DOCNO", getTagData(data, "DOCNO"), Field.Store.YES));
-		  doc.add(new StringField("HEAD", getTagData(data, "HEAD"), Field.Store.YES));
-		  doc.add(new StringField("BYLINE", getTagData(data, "BYLINE"), Field.Store.YES));
-		  doc.add(new StringField("DATELINE", getTagData(data, "DATELINE"), Field.Store.YES));
-		  doc.add(new TextField("TEXT", getTagData(data, "TEXT"), Field.Store.YES));
+		  String docno = parser.getTagData(DOCNO);
+		  String head = parser.getTagData(HEAD);
+		  doc.add(new StringField("DOCNO", docno, Field.Store.YES));
+		  doc.add(new StringField("HEAD", head, Field.Store.YES));
+		  doc.add(new StringField("BYLINE", parser.getTagData(BYLINE), Field.Store.YES));
+		  doc.add(new StringField("DATELINE", parser.getTagData(DATELINE), Field.Store.YES));
+		  String text = parser.getTagData(TEXT);
+		  doc.add(new TextField("TEXT", text, storageProfile.getTextStore()));
+		  if (storageProfile.isTextCompressed())
+		  {
+			  doc.add(new BinaryDocValuesField(TextCompressor.COMPRESSED_TEXT_FIELD, BytesRef.deepCopyOf(getCompressor().compress(text))));
+		  }
+
+		  long parsed = System.nanoTime();
+		  if (null != metrics)
+		  {
+			  metrics.add(IndexingMetrics.Phase.PARSE, parsed - start);
+		  }
+
+		  if (exactLengths)
+		  {
+			  // exact number of tokens and unique terms of TEXT, norms only keep a lossy one byte length
+			  TextLengthCounter counter = getLengthCounter();
+			  counter.count(analyzer, "TEXT", text);
+			  if (null != metrics)
+			  {
+				  metrics.add(IndexingMetrics.Phase.ANALYSIS, System.nanoTime() - parsed);
+			  }
+			  doc.add(new NumericDocValuesField(TEXT_LENGTH_FIELD, counter.getLength()));
+			  doc.add(new NumericDocValuesField(TEXT_UNIQUE_TERMS_FIELD, counter.getUniqueTermCount()));
+		  }
+
+		  // identifiers of results are read from doc values instead of loading the stored doc
+		  doc.add(new SortedDocValuesField("DOCNO", new BytesRef(docno)));
+		  if (headDocValues)
+		  {
+			  doc.add(new BinaryDocValuesField("HEAD", new BytesRef(head)));
+		  }
+
+		  for (int t = DOC_TAGS.length; t < parser.getTags().length; t++)
+		  {
+			  doc.add(new StringField(parser.getTags()[t], parser.getTagData(t), Field.Store.YES));
+		  }
 		  
-		  iw.addDocument(doc);
+		  return doc;
+	}
+
+	/*
+	 *  Method to set the values of the parsed doc in the reusable doc of this thread, it has the same fields as a new doc
+	 */
+	private Document fillDoc(TrecDocParser parser, Analyzer analyzer, long start) throws IOException
+	{
+		  ReusableDocument doc = documents.get();
+		  if (null == doc)
+		  {
+			  doc = new ReusableDocument(parser.getTags(), headDocValues, exactLengths, storageProfile);
+			  documents.set(doc);
+		  }
+
+		  for (int t = 0; t < doc.tagFields.length; t++)
+		  {
+			  doc.tagFields[t].setStringValue(parser.getTagData(t));
+		  }
+
+		  if (null != doc.compressedText)
+		  {
+			  // the field only keeps the reference, the bytes are copied when the doc is added
+			  doc.compressedText.setBytesValue(getCompressor().compress(doc.tagFields[TEXT].stringValue()));
+		  }
+
+		  long parsed = System.nanoTime();
+		  if (null != metrics)
+		  {
+			  metrics.add(IndexingMetrics.Phase.PARSE, parsed - start);
+		  }
+
+		  if (null != doc.length)
+		  {
+			  TextLengthCounter counter = getLengthCounter();
+			  counter.count(analyzer, "TEXT", doc.tagFields[TEXT].stringValue());
+			  if (null != metrics)
+			  {
+				  metrics.add(IndexingMetrics.Phase.ANALYSIS, System.nanoTime() - parsed);
+			  }
+			  doc.length.setLongValue(counter.getLength());
+			  doc.uniqueTerms.setLongValue(counter.getUniqueTermCount());
+		  }
+
+		  doc.docnoBytes.copyChars(doc.tagFields[DOCNO].stringValue());
+		  doc.docnoValues.setBytesValue(doc.docnoBytes.get());
+		  if (null != doc.headValues)
+		  {
+			  doc.headBytes.copyChars(doc.tagFields[HEAD].stringValue());
+			  doc.headValues.setBytesValue(doc.headBytes.get());
+		  }
+
+		  return doc.doc;
+	}
+
+	/*
+	 * Class to hold a Document and its Fields which are reused for the docs indexed by one thread
+	 */
+	private static class ReusableDocument
+	{
+		private Document doc = new Document();
+		// one field per tag, in the order of the tags of the parser
+		private Field[] tagFields = null;
+		// null when the exact length of TEXT is not written
+		private NumericDocValuesField length = null;
+		private NumericDocValuesField uniqueTerms = null;
+		private SortedDocValuesField docnoValues = new SortedDocValuesField("DOCNO", new BytesRef());
+		private BytesRefBuilder docnoBytes = new BytesRefBuilder();
+		// null when HEAD is not written as doc values
+		private BinaryDocValuesField headValues = null;
+		private BytesRefBuilder headBytes = new BytesRefBuilder();
+		// null when TEXT is not compressed
+		private BinaryDocValuesField compressedText = null;
+
+		public ReusableDocument(String[] tags, boolean headDocValues, boolean exactLengths, StorageProfile storageProfile)
+		{
+			tagFields = new Field[tags.length];
+			for (int t = 0; t < tags.length; t++)
+			{
+				tagFields[t] = (t == TEXT) ? new TextField(tags[t], "", storageProfile.getTextStore()) : new StringField(tags[t], "", Field.Store.YES);
+			}
+
+			// same order of fields as createDoc
+			for (int t = 0; t < DOC_TAGS.length; t++)
+			{
+				doc.add(tagFields[t]);
+			}
+			if (storageProfile.isTextCompressed())
+			{
+				compressedText = new BinaryDocValuesField(TextCompressor.COMPRESSED_TEXT_FIELD, new BytesRef());
+				doc.add(compressedText);
+			}
+			if (exactLengths)
+			{
+				length = new NumericDocValuesField(TEXT_LENGTH_FIELD, 0);
+				uniqueTerms = new NumericDocValuesField(TEXT_UNIQUE_TERMS_FIELD, 0);
+				doc.add(length);
+				doc.add(uniqueTerms);
+			}
+			doc.add(docnoValues);
+			if (headDocValues)
+			{
+				headValues = new BinaryDocValuesField("HEAD", new BytesRef());
+				doc.add(headValues);
+			}
+			for (int t = DOC_TAGS.length; t < tags.length; t++)
+			{
+				doc.add(tagFields[t]);
+			}
+		}
 	}
 	
 	/*
@@ -58,15 +366,9 @@ public class GenerateIndex
 	 */
 	public String getTagData(String data, String tag)
 	{
-		Pattern p = Pattern.compile( "<"+tag+">(.+?)</"+tag+">", Pattern.CASE_INSENSITIVE + Pattern.DOTALL + Pattern.MULTILINE );
-		Matcher m = p.matcher(data);
-		StringBuilder sb = new StringBuilder();
-		
-		while (m.find())
-		{
-			sb.append(data.substring(m.start()+tag.length()+2, m.end()-tag.length()-3).trim()).append(" ");
-		}
-		return sb.toString().trim();
+		TrecDocParser parser = new TrecDocParser(tag);
+		parser.parse(data);
+		return parser.getTagData(0);
 	}
 	
 	/*
@@ -74,28 +376,26 @@ public class GenerateIndex
 	 */
 	public void indexFile(IndexWriter iw, String filename) throws IOException
 	{
-		br  = new BufferedReader(new FileReader(filename));
-		String line = null;
+		// reader is local so that several threads can index files at the same time
+		TrecCorpusReader corpus = new TrecCorpusReader(new File(filename));
 		
-		while(null != (line = br.readLine()))
+		try
 		{
-			StringBuilder sb = new StringBuilder();
-
-			// read all content from <DOC> tags
-			while (!line.startsWith("</DOC>"))
+			long start = System.nanoTime();
+			while (corpus.nextDoc())
 			{
-				if (!line.startsWith("<DOC>"))
+				if (null != metrics)
 				{
-					sb.append(line);
+					metrics.add(IndexingMetrics.Phase.READ, System.nanoTime() - start);
 				}
-				line = br.readLine();
-			}
-			// index doc content
-			if (line.startsWith("</DOC>"))
-			{
-				addDoc(iw, sb.toString());
+				addDoc(iw, corpus.getDoc());
+				start = System.nanoTime();
 			}
 		}
+		finally
+		{
+			corpus.close();
+		}
 	}
 	
 	/*
@@ -111,9 +411,23 @@ public class GenerateIndex
 		
 		iwc.setOpenMode(OpenMode.CREATE);
 		
+		if (null != metrics)
+		{
+			metrics.configure(iwc);
+			metrics.start();
+		}
+		
+		// shards of an earlier build would be opened instead of this index
+		ShardedIndexer.removeShards(out_index_dir);
+		
 		IndexWriter indexwriter = new IndexWriter(dir, iwc);
 		
-		File folder = new File("E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw1\\corpus");
+		if (null != metrics)
+		{
+			metrics.startReporting(indexwriter, METRICS_INTERVAL_SEC);
+		}
+		
+		File folder = new File(CORPUS_DIR);
 
 		// read data files from directory and process doc from files
 		for (File fileEntry: folder.listFiles())
@@ -129,12 +443,39 @@ public class GenerateIndex
 			}
 		}
 		
+		// the reporter reads the writer, it is stopped before the writer is closed
+		if (null != metrics)
+		{
+			metrics.stopReporting();
+		}
 		indexwriter.close();
+		if (null != metrics)
+		{
+			metrics.stop();
+		}
+		
+		// the optimize step is timed on its own, it is not part of docs/sec
+		long optimizeNanos = 0;
+		if (targetSegments > 0)
+		{
+			long start = System.nanoTime();
+			new IndexOptimizer().optimize(dir, targetSegments);
+			optimizeNanos = System.nanoTime() - start;
+		}
+		
+		if (null != metrics)
+		{
+			metrics.printSummary(dir);
+			if (targetSegments > 0)
+			{
+				System.out.println(String.format("  optimize to %d segments: %.1f sec", targetSegments, optimizeNanos / 1e9));
+			}
+		}
 	}
 	
 	public void indexAnalyzer(String dir_path) throws IOException
 	{
-		IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(dir_path)));
+		IndexReader reader = ShardedIndexer.openReader(dir_path);
 		
 		//Print the total number of documents in the corpus
 		System.out.println("Total number of documents in the corpus:"+reader.maxDoc());
@@ -147,17 +488,13 @@ public class GenerateIndex
 	    
 		Terms vocabulary = MultiFields.getTerms(reader, "TEXT");
 		
-		// count the vocabulary for <field>TEXT</field>
-		int count = 0;
-		TermsEnum iterator = vocabulary.iterator(null);
-		while(iterator.next() != null) 
-		{
-			count ++;
-		}
+		// count the vocabulary for <field>TEXT</field>, term ranges are counted in parallel
+		CorpusStatistics statistics = new CorpusStatistics(Runtime.getRuntime().availableProcessors(), 0);
+		long count = statistics.collect(reader, "TEXT").get(0).vocabularySize;
 		
 		//Print the size of the vocabulary for <field>TEXT</field>, only available per-segment.
 		System.out.println("Size of the vocabulary for this field:"+count);
-
+		
 		//Print the total number of documents that have at least one term for <field>TEXT</field>
 		System.out.println("Number of documents that have at least one term for this field: "+vocabulary.getDocCount());
 		
@@ -190,9 +527,29 @@ public class GenerateIndex
 		//	Specify the analyzer for tokenizing text.
 	    //	The same analyzer should be used for indexing and searching
 		StandardAnalyzer analyzer = new StandardAnalyzer();
+		// every doc is added right after it is created
+		indexer.setReuseDocuments(true);
+		// what is stored of TEXT, e.g. "snippet" or "search-only"; all of it by default
+		indexer.setStorageProfile((args.length > 0) ? StorageProfile.forName(args[0]) : StorageProfile.FULL);
 		indexer.indexData(analyzer, STD_ANALYZER_INDEX_DIR);
 		indexer.indexAnalyzer(STD_ANALYZER_INDEX_DIR);
 	}
 	
+	// tags of trectext doc in the order used by the parser
+	public static final String[] DOC_TAGS = {"DOCNO", "HEAD", "BYLINE", "DATELINE", "TEXT"};
+	private static final int DOCNO = 0;
+	private static final int HEAD = 1;
+	private static final int BYLINE = 2;
+	private static final int DATELINE = 3;
+	private static final int TEXT = 4;
+
+	// doc values columns with the exact length of TEXT
+	public static final String TEXT_LENGTH_FIELD = "TEXT_LENGTH";
+	public static final String TEXT_UNIQUE_TERMS_FIELD = "TEXT_UNIQUE_TERMS";
+
+	// seconds between two progress reports when metrics are measured
+	public static final long METRICS_INTERVAL_SEC = 30;
+
+	public static final String CORPUS_DIR = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw1\\corpus";
 	public static final String STD_ANALYZER_INDEX_DIR = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw1\\std_index";
 }
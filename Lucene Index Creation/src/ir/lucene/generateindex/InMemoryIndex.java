@@ -0,0 +1,143 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to build an index for an experiment in memory, without fsync and small file I/O.
+ * The index lives in a RAMDirectory until it needs more than the memory budget (index files plus
+ * the RAM buffer of the IndexWriter), then it is committed, copied to out_index_dir and built on
+ * disk from there. When the build is done the index can be copied to out_index_dir in one pass.
+ * RAMDirectory keeps the index on the heap, so the heap has to be larger than the budget.
+ */
+public class InMemoryIndex
+{
+	private Analyzer analyzer = null;
+	private String out_index_dir = null;
+	private long budgetBytes = 0;
+
+	private Directory dir = null;
+	private RAMDirectory ramDir = null;
+	private IndexWriter iw = null;
+
+	public InMemoryIndex(Analyzer analyzer, String out_index_dir, long budgetBytes) throws IOException
+	{
+		this.analyzer = analyzer;
+		this.out_index_dir = out_index_dir;
+		this.budgetBytes = budgetBytes;
+
+		ramDir = new RAMDirectory();
+		dir = ramDir;
+		iw = new IndexWriter(dir, newConfig(OpenMode.CREATE));
+	}
+
+	public IndexWriter getWriter()
+	{
+		return iw;
+	}
+
+	/*
+	 * Method to get the directory which holds the index now, a RAMDirectory until the budget is exceeded
+	 */
+	public Directory getDirectory()
+	{
+		return dir;
+	}
+
+	public boolean isInMemory()
+	{
+		return null != ramDir;
+	}
+
+	/*
+	 * Method to move the index to disk when it needs more memory than the budget, returns true if it was moved.
+	 * It has to be called by the thread which adds the docs, between two docs.
+	 */
+	public boolean checkBudget() throws IOException
+	{
+		if (null == ramDir || ramDir.ramBytesUsed() + iw.ramBytesUsed() <= budgetBytes)
+		{
+			return false;
+		}
+
+		System.out.println("Index for " + out_index_dir + " exceeds " + (budgetBytes >> 20) + " MB, continuing on disk");
+		iw.close();
+		Directory fsDir = copyToDisk();
+		dir = fsDir;
+		iw = new IndexWriter(dir, newConfig(OpenMode.APPEND));
+		return true;
+	}
+
+	/*
+	 * Method to close the writer, the index is copied to out_index_dir if it is still in memory and persist is set.
+	 * Returns the directory which holds the index.
+	 */
+	public Directory close(boolean persist) throws IOException
+	{
+		iw.close();
+		if (null != ramDir && persist)
+		{
+			dir = copyToDisk();
+		}
+		return dir;
+	}
+
+	public IndexReader openReader() throws IOException
+	{
+		return DirectoryReader.open(dir);
+	}
+
+	/*
+	 * Method to copy all files of the in-memory index to out_index_dir and sync them once at the end
+	 */
+	private Directory copyToDisk() throws IOException
+	{
+		File path = new File(out_index_dir);
+		path.mkdirs();
+
+		Directory fsDir = FSDirectory.open(path);
+		for (String file: fsDir.listAll())
+		{
+			// files of an older index in the same directory, its commit would be opened instead of the copied one
+			if (file.startsWith(IndexFileNames.SEGMENTS) || IndexFileNames.CODEC_FILE_PATTERN.matcher(file).matches())
+			{
+				fsDir.deleteFile(file);
+			}
+		}
+
+		String[] files = ramDir.listAll();
+		for (String file: files)
+		{
+			ramDir.copy(fsDir, file, file, IOContext.DEFAULT);
+		}
+		fsDir.sync(Arrays.asList(files));
+
+		ramDir.close();
+		ramDir = null;
+		return fsDir;
+	}
+
+	private IndexWriterConfig newConfig(OpenMode mode)
+	{
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(mode);
+		return iwc;
+	}
+}
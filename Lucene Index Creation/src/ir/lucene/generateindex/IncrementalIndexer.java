@@ -0,0 +1,221 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to keep an index up to date with the corpus directory without rebuilding it.
+ * The manifest of indexed corpus files (path, size, last modified, CRC32 checksum) is stored
+ * in the commit data of the index, so it always matches the committed docs. Only new or changed
+ * files are indexed, their docs replace the indexed docs with the same DOCNO.
+ * Every doc has the path of its corpus file in SOURCE_FIELD: the indexed docs of a changed file are deleted
+ * before its docs are indexed again, and the docs of files removed from the corpus are deleted.
+ * The index is committed every few files, an interrupted build resumes from the last commit.
+ */
+public class IncrementalIndexer
+{
+	private GenerateIndex indexer = new GenerateIndex();
+
+	// number of corpus files indexed between two commits
+	private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+
+	public void setCommitInterval(int commitInterval)
+	{
+		this.commitInterval = commitInterval;
+	}
+
+	/*
+	 * Method to index new and changed trectext files of the corpus directory
+	 */
+	public void indexData(Analyzer analyzer, String corpus_dir, String out_index_dir) throws IOException
+	{
+		Directory dir = FSDirectory.open(new File(out_index_dir));
+
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+
+		// shards of an earlier build would be opened instead of this index
+		ShardedIndexer.removeShards(out_index_dir);
+
+		IndexWriter indexwriter = new IndexWriter(dir, iwc);
+
+		// manifest of the last commit
+		Map<String, String> manifest = new HashMap<String, String>(indexwriter.getCommitData());
+
+		int indexed = 0;
+		int skipped = 0;
+		int pending = 0;
+		int deleted = 0;
+
+		try
+		{
+			for (File fileEntry: new File(corpus_dir).listFiles())
+			{
+				String path = fileEntry.getAbsolutePath();
+				String entry = manifest.get(path);
+				String current = getManifestEntry(fileEntry, entry);
+
+				if (current.equals(entry))
+				{
+					skipped++;
+					continue;
+				}
+
+				try
+				{
+					if (null == entry || !getChecksum(current).equals(getChecksum(entry)))
+					{
+						indexFile(indexwriter, fileEntry);
+						indexed++;
+					}
+					manifest.put(path, current);
+					pending++;
+				}
+				catch(IOException ex)
+				{
+					System.out.println(path + ": " + ex.getMessage());
+				}
+
+				// checkpoint, files after this commit are indexed again after a crash
+				if (pending >= commitInterval)
+				{
+					commit(indexwriter, manifest);
+					pending = 0;
+				}
+			}
+
+			// files of the manifest which are no longer in the corpus
+			List<String> removed = new ArrayList<String>();
+			for (String path: manifest.keySet())
+			{
+				if (!new File(path).exists())
+				{
+					removed.add(path);
+				}
+			}
+			for (String path: removed)
+			{
+				indexwriter.deleteDocuments(new Term(SOURCE_FIELD, path));
+				manifest.remove(path);
+				deleted++;
+			}
+
+			commit(indexwriter, manifest);
+		}
+		finally
+		{
+			indexwriter.close();
+		}
+
+		System.out.println("Indexed " + indexed + " new or changed files, skipped " + skipped + " unchanged files, deleted " + deleted + " removed files");
+	}
+
+	/*
+	 * Method to replace docs of a corpus file in the index. The indexed docs of the file are deleted first,
+	 * so DOCNOs which were removed from the file are gone; a DOCNO which moved from another file replaces its doc.
+	 */
+	public void indexFile(IndexWriter iw, File file) throws IOException
+	{
+		String path = file.getAbsolutePath();
+		iw.deleteDocuments(new Term(SOURCE_FIELD, path));
+
+		TrecCorpusReader corpus = new TrecCorpusReader(file);
+
+		try
+		{
+			while (corpus.nextDoc())
+			{
+				Document doc = indexer.createDoc(corpus.getDoc(), iw.getAnalyzer());
+				doc.add(new StringField(SOURCE_FIELD, path, Field.Store.NO));
+				iw.updateDocument(new Term("DOCNO", doc.get("DOCNO")), doc);
+			}
+		}
+		finally
+		{
+			corpus.close();
+		}
+	}
+
+	private void commit(IndexWriter iw, Map<String, String> manifest) throws IOException
+	{
+		iw.setCommitData(new HashMap<String, String>(manifest));
+		iw.commit();
+	}
+
+	/*
+	 * Method to get the manifest entry "size mtime checksum" of a corpus file.
+	 * The checksum is only computed again when size or last modified time changed.
+	 */
+	public static String getManifestEntry(File file, String previous) throws IOException
+	{
+		String stat = file.length() + " " + file.lastModified();
+		if (null != previous && previous.startsWith(stat + " "))
+		{
+			return previous;
+		}
+		return stat + " " + Long.toHexString(computeChecksum(file));
+	}
+
+	private static String getChecksum(String entry)
+	{
+		return entry.substring(entry.lastIndexOf(' ') + 1);
+	}
+
+	/*
+	 * Method to compute CRC32 of a file
+	 */
+	public static long computeChecksum(File file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			while (channel.read(buffer) > 0)
+			{
+				crc.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+		return crc.getValue();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		IncrementalIndexer indexer = new IncrementalIndexer();
+		indexer.indexData(new StandardAnalyzer(), GenerateIndex.CORPUS_DIR, GenerateIndex.STD_ANALYZER_INDEX_DIR);
+	}
+
+	public static final int DEFAULT_COMMIT_INTERVAL = 10;
+	// path of the corpus file of a doc, indexed only to delete the docs of a file
+	public static final String SOURCE_FIELD = "SOURCE";
+}
@@ -0,0 +1,80 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+
+/*
+ * Class with the measurements shared by the reports which compare indexes built in different ways:
+ * the size of an index and the latency of the same queries on each of them.
+ * Queries are pairs of the most frequent TEXT terms of an index.
+ */
+public class IndexBenchmark
+{
+	/*
+	 * Method to build queries of two terms from the most frequent terms of TEXT
+	 */
+	public static List<Query> getQueries(IndexReader reader, int numQueries) throws IOException
+	{
+		CorpusStatistics statistics = new CorpusStatistics(Runtime.getRuntime().availableProcessors(), numQueries + 1);
+		List<CorpusStatistics.TermStat> terms = statistics.collect(reader, "TEXT").get(0).getTopTerms();
+
+		List<Query> queries = new ArrayList<Query>();
+		for (int i = 0; i + 1 < terms.size(); i++)
+		{
+			BooleanQuery query = new BooleanQuery();
+			query.add(new TermQuery(new Term("TEXT", terms.get(i).term)), BooleanClause.Occur.SHOULD);
+			query.add(new TermQuery(new Term("TEXT", terms.get(i + 1).term)), BooleanClause.Occur.SHOULD);
+			queries.add(query);
+		}
+		return queries;
+	}
+
+	/*
+	 * Method to get the mean latency in microseconds of the top RESULT_SIZE docs of every query, after a warm up round
+	 */
+	public static double measureLatency(IndexReader reader, List<Query> queries, int rounds) throws IOException
+	{
+		IndexSearcher searcher = new IndexSearcher(reader);
+		for (Query query: queries)
+		{
+			searcher.search(query, RESULT_SIZE);
+		}
+
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++)
+		{
+			for (Query query: queries)
+			{
+				searcher.search(query, RESULT_SIZE);
+			}
+		}
+		return (System.nanoTime() - start) / 1e3 / (rounds * queries.size());
+	}
+
+	public static long getDirectorySize(Directory dir) throws IOException
+	{
+		long size = 0;
+		for (String file: dir.listAll())
+		{
+			size += dir.fileLength(file);
+		}
+		return size;
+	}
+
+	public static final int NUM_QUERIES = 50;
+	public static final int ROUNDS = 20;
+	public static final int RESULT_SIZE = 1000;
+}
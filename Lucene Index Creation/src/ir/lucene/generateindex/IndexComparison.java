@@ -3,20 +3,19 @@ package ir.lucene.generateindex;
  * Author: Shivraj Nimbalkar
  */
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.core.SimpleAnalyzer;
 import org.apache.lucene.analysis.core.StopAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
@@ -26,7 +25,6 @@ import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
-import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -34,16 +32,60 @@ import org.apache.lucene.util.Version;
 
 public class IndexComparison 
 {
-	private BufferedReader br = null;
+	private TrecDocParser parser = new TrecDocParser("TEXT");
+
+	// memory budget of each index when indexes are built in memory, 0 to build them on disk
+	private long memoryBudgetBytes = 0;
+	// copy indexes which are still in memory to disk when they are built
+	private boolean persist = false;
+
+	/*
+	 * Method to build the indexes of indexData(Analyzer[], String[]) in memory. An index which needs more than
+	 * budgetMB is moved to its directory on disk, the others are only written to disk at the end if persist is set.
+	 */
+	public void setInMemory(long budgetMB, boolean persist)
+	{
+		this.memoryBudgetBytes = budgetMB << 20;
+		this.persist = persist;
+	}
+
+	// what is stored of TEXT, writer threads compress TEXT at the same time so every thread has its own compressor
+	private StorageProfile storageProfile = StorageProfile.FULL;
+	private ThreadLocal<TextCompressor> compressors = new ThreadLocal<TextCompressor>();
+
+	public void setStorageProfile(StorageProfile storageProfile)
+	{
+		this.storageProfile = storageProfile;
+	}
 
 	/*
 	 *  Method to index document in corpus
 	 */
-	public void addTextDoc(IndexWriter iw, String data) throws IOException
+	public void addTextDoc(IndexWriter iw, CharSequence data) throws IOException
+	{
+		  parser.parse(data);
+
+		  addText(iw, parser.getTagData(0));
+	}
+
+	/*
+	 * Method to index the already extracted TEXT of a document
+	 */
+	public void addText(IndexWriter iw, String text) throws IOException
 	{
 		  Document doc = new Document();
 
-		  doc.add(new TextField("TEXT", getTagData(data, "TEXT"), Field.Store.YES));
+		  doc.add(new TextField("TEXT", text, storageProfile.getTextStore()));
+		  if (storageProfile.isTextCompressed())
+		  {
+			  TextCompressor compressor = compressors.get();
+			  if (null == compressor)
+			  {
+				  compressor = new TextCompressor();
+				  compressors.set(compressor);
+			  }
+			  doc.add(new BinaryDocValuesField(TextCompressor.COMPRESSED_TEXT_FIELD, compressor.compress(text)));
+		  }
 		  
 		  iw.addDocument(doc);
 	}
@@ -53,15 +95,9 @@ public class IndexComparison
 	 */
 	public String getTagData(String data, String tag)
 	{
-		Pattern p = Pattern.compile( "<"+tag+">(.+?)</"+tag+">", Pattern.CASE_INSENSITIVE + Pattern.DOTALL + Pattern.MULTILINE );
-		Matcher m = p.matcher(data);
-		StringBuilder sb = new StringBuilder();
-		
-		while (m.find())
-		{
-			sb.append(data.substring(m.start()+tag.length()+2, m.end()-tag.length()-3).trim()).append(" ");
-		}
-		return sb.toString().trim();
+		TrecDocParser tagParser = new TrecDocParser(tag);
+		tagParser.parse(data);
+		return tagParser.getTagData(0);
 	}
 	
 	/*
@@ -69,27 +105,19 @@ public class IndexComparison
 	 */
 	public void indexFile(IndexWriter iw, String filename) throws IOException
 	{
-		br  = new BufferedReader(new FileReader(filename));
-		String line = null;
+		TrecCorpusReader corpus = new TrecCorpusReader(new File(filename));
 		
-		while(null != (line = br.readLine()))
+		try
 		{
-			StringBuilder sb = new StringBuilder();
-
-			while (!line.startsWith("</DOC>"))
-			{
-				if (!line.startsWith("<DOC>"))
-				{
-					sb.append(line);
-				}
-				line = br.readLine();
-			}
-			
-			if (line.startsWith("</DOC>"))
+			while (corpus.nextDoc())
 			{
-				addTextDoc(iw, sb.toString());
+				addTextDoc(iw, corpus.getDoc());
 			}
 		}
+		finally
+		{
+			corpus.close();
+		}
 	}
 	
 	/*
@@ -125,9 +153,225 @@ public class IndexComparison
 		indexwriter.close();
 	}
 	
+	/*
+	 * Method to generate one index per analyzer with a single pass over the trectext files.
+	 * Each doc is read and parsed once and its TEXT is queued to one writer thread per analyzer,
+	 * the bounded queues hold the parser back when a writer falls behind.
+	 * Returns the directories of the indexes, which are in memory for indexes that were not written to disk.
+	 */
+	public Directory[] indexData(Analyzer[] analyzers, String[] out_index_dirs) throws IOException
+	{
+		WriterThread[] writers = new WriterThread[analyzers.length];
+		for (int i = 0; i < analyzers.length; i++)
+		{
+			if (memoryBudgetBytes > 0)
+			{
+				writers[i] = new WriterThread(new InMemoryIndex(analyzers[i], out_index_dirs[i], memoryBudgetBytes), out_index_dirs[i]);
+			}
+			else
+			{
+				Directory dir = FSDirectory.open(new File(out_index_dirs[i]));
+				IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzers[i]);
+				iwc.setOpenMode(OpenMode.CREATE);
+
+				writers[i] = new WriterThread(new IndexWriter(dir, iwc), out_index_dirs[i]);
+			}
+			writers[i].start();
+		}
+
+		File folder = new File(CORPUS_DIR);
+
+		try
+		{
+			for (File fileEntry: folder.listFiles())
+			{
+				try
+				{
+					TrecCorpusReader corpus = new TrecCorpusReader(fileEntry);
+					try
+					{
+						while (corpus.nextDoc())
+						{
+							parser.parse(corpus.getDoc());
+							String text = parser.getTagData(0);
+							for (WriterThread writer: writers)
+							{
+								writer.put(text);
+							}
+						}
+					}
+					finally
+					{
+						corpus.close();
+					}
+				}
+				catch(IOException ex)
+				{
+					System.out.println(ex.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			for (WriterThread writer: writers)
+			{
+				writer.put(END_OF_CORPUS);
+			}
+		}
+
+		Throwable failure = null;
+		Directory[] dirs = new Directory[writers.length];
+		for (int i = 0; i < writers.length; i++)
+		{
+			Throwable ex = writers[i].finish();
+			if (null != ex && null == failure)
+			{
+				failure = ex;
+			}
+			dirs[i] = writers[i].dir;
+		}
+		if (failure instanceof IOException)
+		{
+			throw (IOException) failure;
+		}
+		if (failure instanceof Error)
+		{
+			throw (Error) failure;
+		}
+		if (null != failure)
+		{
+			throw new IOException(failure);
+		}
+		return dirs;
+	}
+
+	/*
+	 * Thread which adds docs from its queue to one index until END_OF_CORPUS is taken
+	 */
+	private class WriterThread extends Thread
+	{
+		private IndexWriter iw = null;
+		// index in memory, null when the index is built on disk
+		private InMemoryIndex memoryIndex = null;
+		private Directory dir = null;
+		private BlockingQueue<String> queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+		// first exception or error of the writer, read by the parser thread
+		private volatile Throwable failure = null;
+
+		public WriterThread(IndexWriter iw, String out_index_dir)
+		{
+			super("writer-" + out_index_dir);
+			this.iw = iw;
+			this.dir = iw.getDirectory();
+		}
+
+		public WriterThread(InMemoryIndex memoryIndex, String out_index_dir)
+		{
+			this(memoryIndex.getWriter(), out_index_dir);
+			this.memoryIndex = memoryIndex;
+		}
+
+		/*
+		 * Method to queue a doc, it is dropped when the writer thread has ended so that the parser is never blocked
+		 */
+		public void put(String text)
+		{
+			try
+			{
+				while (!queue.offer(text, PUT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+				{
+					if (!isAlive())
+					{
+						return;
+					}
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ex);
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				String text = null;
+				while (END_OF_CORPUS != (text = queue.take()))
+				{
+					// after a failure keep draining the queue so that the parser is not blocked
+					if (null != failure)
+					{
+						continue;
+					}
+					try
+					{
+						addText(iw, text);
+						if (null != memoryIndex && memoryIndex.checkBudget())
+						{
+							iw = memoryIndex.getWriter();
+						}
+					}
+					catch (Throwable ex)
+					{
+						failure = ex;
+					}
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (Throwable ex)
+			{
+				failure = ex;
+			}
+		}
+
+		/*
+		 * Method to wait for the queue to drain and close the index, returns the first failure of the writer
+		 */
+		public Throwable finish()
+		{
+			try
+			{
+				join();
+				if (null != memoryIndex)
+				{
+					dir = memoryIndex.close(persist);
+				}
+				else
+				{
+					iw.close();
+				}
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+				return new IOException(ex);
+			}
+			catch (Throwable ex)
+			{
+				// the failure of the writer is reported rather than the failure to close after it
+				return (null != failure) ? failure : ex;
+			}
+			return failure;
+		}
+	}
+
 	public void indexAnalyzer(String dir_path) throws IOException
 	{
-		IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(dir_path)));
+		indexAnalyzer(FSDirectory.open(new File(dir_path)));
+	}
+
+	/*
+	 * Method to print the statistics of an index which may be in memory
+	 */
+	public void indexAnalyzer(Directory dir) throws IOException
+	{
+		IndexReader reader = DirectoryReader.open(dir);
 		
 		//Print the total number of documents in the corpus
 		System.out.println("Total number of documents in the corpus:"+reader.maxDoc());
@@ -140,13 +384,9 @@ public class IndexComparison
 		
 		Terms vocabulary = MultiFields.getTerms(reader, "TEXT");
 		
-		// count the vocabulary for <field>TEXT</field>
-		int count = 0;
-		TermsEnum iterator = vocabulary.iterator(null);
-		while(iterator.next() != null) 
-		{
-			count ++;
-		}
+		// count the vocabulary for <field>TEXT</field>, term ranges are counted in parallel
+		CorpusStatistics statistics = new CorpusStatistics(Runtime.getRuntime().availableProcessors(), 0);
+		long count = statistics.collect(reader, "TEXT").get(0).vocabularySize;
 		
 		//Print the size of the vocabulary for <field>TEXT</field>, only available per-segment.
 		System.out.println("Size of the vocabulary for this field:"+count);
@@ -179,30 +419,41 @@ public class IndexComparison
 	public static void main(String[] args) throws IOException, ParseException
 	{
 		IndexComparison ic = new IndexComparison();
-		Analyzer analyzer = null;
 		
 		//	Specify the analyzer for tokenizing text.
 	    //	The same analyzer should be used for indexing and searching
-		analyzer = new StandardAnalyzer();
-		ic.indexData(analyzer, STANDARD_ANALYSER_INDEX_DIR);
-		ic.indexAnalyzer(STANDARD_ANALYSER_INDEX_DIR);
-		System.out.println("----------------------------------------------------------");
-
-		analyzer = new KeywordAnalyzer();
-		ic.indexData(analyzer, KEYWORD_ANALYSER_INDEX_DIR);
-		ic.indexAnalyzer(KEYWORD_ANALYSER_INDEX_DIR);
-		System.out.println("----------------------------------------------------------");
-
-		analyzer = new SimpleAnalyzer();
-		ic.indexData(analyzer, SIMPLE_ANALYSER_INDEX_DIR);
-		ic.indexAnalyzer(SIMPLE_ANALYSER_INDEX_DIR);
-		System.out.println("----------------------------------------------------------");
-
-		analyzer = new StopAnalyzer();
-		ic.indexData(analyzer, STOP_ANALYSER_INDEX_DIR);
-		ic.indexAnalyzer(STOP_ANALYSER_INDEX_DIR);
+		Analyzer[] analyzers = {new StandardAnalyzer(), new KeywordAnalyzer(), new SimpleAnalyzer(), new StopAnalyzer()};
+		String[] index_dirs = {STANDARD_ANALYSER_INDEX_DIR, KEYWORD_ANALYSER_INDEX_DIR, SIMPLE_ANALYSER_INDEX_DIR, STOP_ANALYSER_INDEX_DIR};
+
+		// indexes are only needed for their statistics, build them in memory when a budget is given
+		if (args.length > 0)
+		{
+			ic.setInMemory(Long.parseLong(args[0]), args.length > 1 && Boolean.parseBoolean(args[1]));
+		}
+
+		// what is stored of TEXT, e.g. "search-only" as only the statistics are needed; all of it by default
+		ic.setStorageProfile((args.length > 2) ? StorageProfile.forName(args[2]) : StorageProfile.FULL);
+
+		// all indexes are built from one pass over the corpus
+		Directory[] dirs = ic.indexData(analyzers, index_dirs);
+
+		for (int i = 0; i < dirs.length; i++)
+		{
+			if (i > 0)
+			{
+				System.out.println("----------------------------------------------------------");
+			}
+			ic.indexAnalyzer(dirs[i]);
+			dirs[i].close();
+		}
 	}
 	
+	// docs waiting for each writer thread
+	public static final int QUEUE_SIZE = 1000;
+	// time the parser waits for a full queue before it checks that the writer is still running
+	private static final long PUT_TIMEOUT_MS = 100;
+	private static final String END_OF_CORPUS = new String();
+
 	public static final String CORPUS_DIR = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw1\\corpus";
 	public static final String STANDARD_ANALYSER_INDEX_DIR = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw1\\std_index";
 	public static final String STOP_ANALYSER_INDEX_DIR = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw1\\stop_index";
@@ -0,0 +1,259 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to optimize the segment layout of a built index for searching. The index is force merged
+ * down to a target number of segments with a merge policy for read-mostly indexes. Merges run in
+ * background threads and their writes can be throttled, so that searches on the index are not starved;
+ * searchers keep using the old segments until they are reopened.
+ * The latency report shows how the number of segments affects the latency of the topic queries.
+ */
+public class IndexOptimizer
+{
+	// MB/sec written by merges, 0 for no limit
+	private double maxMergeMBPerSec = 0;
+	private int mergeThreads = 1;
+
+	private IndexWriter iw = null;
+
+	public void setMaxMergeMBPerSec(double maxMergeMBPerSec)
+	{
+		this.maxMergeMBPerSec = maxMergeMBPerSec;
+	}
+
+	public void setMergeThreads(int mergeThreads)
+	{
+		this.mergeThreads = mergeThreads;
+	}
+
+	/*
+	 * Method to get a merge policy for an index which is built once and searched often: larger segments,
+	 * fewer segments per tier, deletes are reclaimed early and segments are not compound files
+	 */
+	public static TieredMergePolicy newReadOptimizedMergePolicy()
+	{
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		mergePolicy.setMaxMergedSegmentMB(READ_MAX_MERGED_SEGMENT_MB);
+		mergePolicy.setSegmentsPerTier(READ_SEGMENTS_PER_TIER);
+		mergePolicy.setMaxMergeAtOnceExplicit(READ_MAX_MERGE_AT_ONCE_EXPLICIT);
+		mergePolicy.setReclaimDeletesWeight(READ_RECLAIM_DELETES_WEIGHT);
+		mergePolicy.setForceMergeDeletesPctAllowed(0);
+		mergePolicy.setNoCFSRatio(0);
+		return mergePolicy;
+	}
+
+	/*
+	 * Method to start merging the index in dir down to maxSegments segments in the background
+	 */
+	public void start(Directory dir, int maxSegments) throws IOException
+	{
+		Directory mergeDir = dir;
+		if (maxMergeMBPerSec > 0)
+		{
+			RateLimitedDirectoryWrapper rateLimitedDir = new RateLimitedDirectoryWrapper(dir);
+			rateLimitedDir.setMaxWriteMBPerSec(maxMergeMBPerSec, IOContext.Context.MERGE);
+			mergeDir = rateLimitedDir;
+		}
+
+		ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+		mergeScheduler.setMaxMergesAndThreads(mergeThreads + 1, mergeThreads);
+
+		// no docs are added, the analyzer is not used
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, new StandardAnalyzer());
+		iwc.setOpenMode(OpenMode.APPEND);
+		iwc.setMergePolicy(newReadOptimizedMergePolicy());
+		iwc.setMergeScheduler(mergeScheduler);
+
+		iw = new IndexWriter(mergeDir, iwc);
+		iw.forceMerge(maxSegments, false);
+	}
+
+	/*
+	 * Method to wait for the merges started by start and commit the merged index
+	 */
+	public void finish() throws IOException
+	{
+		try
+		{
+			iw.waitForMerges();
+			iw.commit();
+		}
+		finally
+		{
+			iw.close();
+			iw = null;
+		}
+	}
+
+	public void optimize(Directory dir, int maxSegments) throws IOException
+	{
+		start(dir, maxSegments);
+		finish();
+	}
+
+	/*
+	 * Method to measure the query latency of a copy of the index for each number of segments.
+	 * Segment counts have to be in descending order, the copy is merged further for each of them.
+	 */
+	public void printLatencyReport(String index_dir, String temp_dir, int[] segmentCounts, List<Query> queries) throws IOException
+	{
+		Directory dir = FSDirectory.open(new File(index_dir));
+		new File(temp_dir).mkdirs();
+		Directory copy = FSDirectory.open(new File(temp_dir));
+		for (String file: copy.listAll())
+		{
+			copy.deleteFile(file);
+		}
+		for (String file: dir.listAll())
+		{
+			dir.copy(copy, file, file, IOContext.DEFAULT);
+		}
+
+		System.out.println("segments\tms/query\tindex MB");
+		printLatency(copy, queries);
+		for (int maxSegments: segmentCounts)
+		{
+			optimize(copy, maxSegments);
+			printLatency(copy, queries);
+		}
+
+		for (String file: copy.listAll())
+		{
+			copy.deleteFile(file);
+		}
+		copy.close();
+		dir.close();
+	}
+
+	private void printLatency(Directory dir, List<Query> queries) throws IOException
+	{
+		DirectoryReader reader = DirectoryReader.open(dir);
+		try
+		{
+			IndexSearcher searcher = new IndexSearcher(reader);
+			// warm up
+			for (Query query: queries)
+			{
+				searcher.search(query, RESULT_SIZE);
+			}
+
+			long start = System.nanoTime();
+			for (int r = 0; r < ROUNDS; r++)
+			{
+				for (Query query: queries)
+				{
+					searcher.search(query, RESULT_SIZE);
+				}
+			}
+			double msPerQuery = (System.nanoTime() - start) / 1e6 / (ROUNDS * queries.size());
+
+			long size = 0;
+			for (String file: dir.listAll())
+			{
+				size += dir.fileLength(file);
+			}
+			System.out.println(String.format("%d\t%.3f\t%.1f", reader.leaves().size(), msPerQuery, size / 1e6));
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/*
+	 * Method to parse the titles and descriptions of a TREC topic file into queries on TEXT
+	 */
+	public static List<Query> readTopics(String topic_file, Analyzer analyzer) throws IOException, ParseException
+	{
+		StringBuilder sb = new StringBuilder();
+		BufferedReader br = new BufferedReader(new FileReader(topic_file));
+		try
+		{
+			String line = null;
+			while (null != (line = br.readLine()))
+			{
+				sb.append(line).append(" ");
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+
+		QueryParser queryparser = new QueryParser("TEXT", analyzer);
+		List<Query> queries = new ArrayList<Query>();
+		Pattern p = Pattern.compile("<title>\\s*(Topic:)?(.+?)<desc>\\s*(Description:)?(.+?)<smry>", Pattern.CASE_INSENSITIVE + Pattern.DOTALL);
+		Matcher m = p.matcher(sb);
+		while (m.find())
+		{
+			queries.add(queryparser.parse(QueryParser.escape(m.group(2).trim())));
+			queries.add(queryparser.parse(QueryParser.escape(m.group(4).trim())));
+		}
+		return queries;
+	}
+
+	/*
+	 * Usage: IndexOptimizer report [index dir] [temp dir]
+	 *        IndexOptimizer optimize [index dir] [segments] [MB/sec]
+	 */
+	public static void main(String[] args) throws IOException, ParseException
+	{
+		String mode = (args.length > 0) ? args[0] : "report";
+		String index_dir = (args.length > 1) ? args[1] : GenerateIndex.STD_ANALYZER_INDEX_DIR;
+
+		IndexOptimizer optimizer = new IndexOptimizer();
+		if ("optimize".equals(mode))
+		{
+			int maxSegments = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+			optimizer.setMaxMergeMBPerSec((args.length > 3) ? Double.parseDouble(args[3]) : 0);
+			optimizer.optimize(FSDirectory.open(new File(index_dir)), maxSegments);
+		}
+		else
+		{
+			String temp_dir = (args.length > 2) ? args[2] : new File(System.getProperty("java.io.tmpdir"), "optimize").getPath();
+			List<Query> queries = readTopics(TOPICS_FILE, new StandardAnalyzer());
+			optimizer.printLatencyReport(index_dir, temp_dir, REPORT_SEGMENT_COUNTS, queries);
+		}
+	}
+
+	public static final String TOPICS_FILE = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\topics.51-100";
+
+	public static final double READ_MAX_MERGED_SEGMENT_MB = 20 * 1024;
+	public static final double READ_SEGMENTS_PER_TIER = 4;
+	// segments merged at once by a forced merge, fewer merge passes over the same data
+	public static final int READ_MAX_MERGE_AT_ONCE_EXPLICIT = 100;
+	public static final double READ_RECLAIM_DELETES_WEIGHT = 3.0;
+
+	public static final int[] REPORT_SEGMENT_COUNTS = {32, 16, 8, 4, 2, 1};
+	public static final int ROUNDS = 10;
+	public static final int RESULT_SIZE = 1000;
+}
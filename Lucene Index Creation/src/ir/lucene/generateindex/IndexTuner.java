@@ -0,0 +1,206 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to find the IndexWriterConfig which indexes the corpus fastest on this machine.
+ * A sample of the corpus files is indexed once per combination of RAM buffer size, max buffered docs,
+ * merge policy and compound files into a temporary directory, and the throughput of each run is reported.
+ * Configurations are ranked by their median throughput over several rounds after a warm-up run.
+ */
+public class IndexTuner
+{
+	private GenerateIndex indexer = new GenerateIndex();
+
+	/*
+	 * Method to index the sample files with every configuration, returns the results from fastest to slowest.
+	 * A first run which is not counted warms up the JIT and the page cache. Then the whole sweep is repeated
+	 * ROUNDS times, so every configuration runs early and late, and the run with the median docs/sec of each
+	 * configuration is its result.
+	 */
+	public List<TuningResult> sweep(Analyzer analyzer, File[] sample, File temp_dir) throws IOException
+	{
+		List<TuningResult> configs = new ArrayList<TuningResult>();
+		for (double ramBufferSizeMB: RAM_BUFFER_SIZES_MB)
+		{
+			for (int maxBufferedDocs: MAX_BUFFERED_DOCS)
+			{
+				for (String mergePolicy: MERGE_POLICIES)
+				{
+					for (boolean compoundFile: new boolean[] {true, false})
+					{
+						configs.add(new TuningResult(ramBufferSizeMB, maxBufferedDocs, mergePolicy, compoundFile));
+					}
+				}
+			}
+		}
+
+		run(analyzer, sample, new File(temp_dir, "tune-warmup"), configs.get(0).copyConfig());
+
+		// runs of every configuration, one per round
+		TuningResult[][] runs = new TuningResult[configs.size()][ROUNDS];
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			for (int c = 0; c < configs.size(); c++)
+			{
+				TuningResult result = configs.get(c).copyConfig();
+				run(analyzer, sample, new File(temp_dir, "tune-" + c), result);
+				System.out.println("round " + (round + 1) + ": " + result);
+				runs[c][round] = result;
+			}
+		}
+
+		TuningResult[] sorted = new TuningResult[configs.size()];
+		for (int c = 0; c < configs.size(); c++)
+		{
+			// sorted from the fastest run, the middle one is the median
+			Arrays.sort(runs[c]);
+			sorted[c] = runs[c][ROUNDS / 2];
+		}
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted);
+	}
+
+	/*
+	 * Method to index the sample files with one configuration and record its throughput
+	 */
+	private void run(Analyzer analyzer, File[] sample, File index_dir, TuningResult result) throws IOException
+	{
+		Directory dir = FSDirectory.open(index_dir);
+
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+		iwc.setRAMBufferSizeMB(result.ramBufferSizeMB);
+		iwc.setMaxBufferedDocs(result.maxBufferedDocs);
+
+		MergePolicy mergePolicy = "tiered".equals(result.mergePolicy) ? new TieredMergePolicy() : new LogByteSizeMergePolicy();
+		mergePolicy.setNoCFSRatio(result.compoundFile ? 1.0 : 0.0);
+		iwc.setMergePolicy(mergePolicy);
+		iwc.setUseCompoundFile(result.compoundFile);
+
+		IndexingMetrics metrics = new IndexingMetrics();
+		metrics.configure(iwc);
+		indexer.setMetrics(metrics);
+
+		metrics.start();
+		IndexWriter indexwriter = new IndexWriter(dir, iwc);
+		try
+		{
+			for (File file: sample)
+			{
+				indexer.indexFile(indexwriter, file.getPath());
+			}
+		}
+		finally
+		{
+			indexwriter.close();
+			indexer.setMetrics(null);
+		}
+
+		result.docs = metrics.getDocs();
+		result.docsPerSec = metrics.getDocsPerSec();
+		result.mbPerSec = metrics.getMBPerSec();
+		result.flushSec = metrics.getNanos(IndexingMetrics.Phase.FLUSH) / 1e9;
+		result.mergeSec = metrics.getNanos(IndexingMetrics.Phase.MERGE) / 1e9;
+		result.segments = IndexingMetrics.countSegments(dir);
+		result.peakHeapMB = IndexingMetrics.getPeakHeap() >> 20;
+
+		dir.close();
+		for (File file: index_dir.listFiles())
+		{
+			file.delete();
+		}
+		index_dir.delete();
+	}
+
+	/*
+	 * Class to hold one configuration and its throughput, sorted by docs/sec descending
+	 */
+	public static class TuningResult implements Comparable<TuningResult>
+	{
+		public final double ramBufferSizeMB;
+		public final int maxBufferedDocs;
+		public final String mergePolicy;
+		public final boolean compoundFile;
+
+		public long docs = 0;
+		public double docsPerSec = 0;
+		public double mbPerSec = 0;
+		public double flushSec = 0;
+		public double mergeSec = 0;
+		public int segments = 0;
+		public long peakHeapMB = 0;
+
+		public TuningResult(double ramBufferSizeMB, int maxBufferedDocs, String mergePolicy, boolean compoundFile)
+		{
+			this.ramBufferSizeMB = ramBufferSizeMB;
+			this.maxBufferedDocs = maxBufferedDocs;
+			this.mergePolicy = mergePolicy;
+			this.compoundFile = compoundFile;
+		}
+
+		/*
+		 * Method to get a result with the same configuration and no measurements
+		 */
+		public TuningResult copyConfig()
+		{
+			return new TuningResult(ramBufferSizeMB, maxBufferedDocs, mergePolicy, compoundFile);
+		}
+
+		@Override
+		public int compareTo(TuningResult other)
+		{
+			return Double.compare(other.docsPerSec, docsPerSec);
+		}
+
+		@Override
+		public String toString()
+		{
+			String maxDocs = (maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH) ? "off" : String.valueOf(maxBufferedDocs);
+			return String.format("ram=%.0fMB maxBufferedDocs=%s merge=%s cfs=%s: %.1f docs/sec, %.2f MB/sec, flush %.1fs, merge %.1fs, %d segments, %d MB peak heap",
+					ramBufferSizeMB, maxDocs, mergePolicy, compoundFile, docsPerSec, mbPerSec, flushSec, mergeSec, segments, peakHeapMB);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		// number of corpus files to index per configuration
+		int sampleSize = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SAMPLE_SIZE;
+		String temp_dir = (args.length > 1) ? args[1] : System.getProperty("java.io.tmpdir");
+
+		File[] files = new File(GenerateIndex.CORPUS_DIR).listFiles();
+		Arrays.sort(files);
+		File[] sample = Arrays.copyOf(files, Math.min(sampleSize, files.length));
+
+		IndexTuner tuner = new IndexTuner();
+		List<TuningResult> results = tuner.sweep(new StandardAnalyzer(), sample, new File(temp_dir));
+
+		System.out.println("Fastest configuration: " + results.get(0));
+	}
+
+	public static final double[] RAM_BUFFER_SIZES_MB = {16, 64, 256};
+	public static final int[] MAX_BUFFERED_DOCS = {IndexWriterConfig.DISABLE_AUTO_FLUSH, 10000};
+	public static final String[] MERGE_POLICIES = {"tiered", "logbytesize"};
+	public static final int DEFAULT_SAMPLE_SIZE = 50;
+	// rounds of the sweep, odd so that the median is one run
+	public static final int ROUNDS = 3;
+}
@@ -0,0 +1,320 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.InfoStream;
+
+/*
+ * Class to measure where indexing time goes: time per phase summed over all indexing threads,
+ * docs/sec, MB/sec, number of segments and peak heap. Progress is printed periodically while the
+ * index is built and a summary at the end.
+ * Segment flushes triggered by the RAM buffer run inside addDocument, so their time is part of
+ * addDocument as well as of flush. Analysis is the time to count the exact TEXT length,
+ * the inversion done by IndexWriter is part of addDocument.
+ */
+public class IndexingMetrics
+{
+	public enum Phase
+	{
+		READ, PARSE, ANALYSIS, ADD_DOCUMENT, FLUSH, MERGE
+	}
+
+	private AtomicLong[] phaseNanos = new AtomicLong[Phase.values().length];
+	private AtomicLong docs = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	private AtomicLong merges = new AtomicLong();
+	private AtomicLong flushes = new AtomicLong();
+
+	private long startNanos = 0;
+	// end of indexing, 0 while the index is built
+	private long stopNanos = 0;
+	private ScheduledExecutorService reporter = null;
+
+	// start of the segment flush running in the current thread
+	private ThreadLocal<Long> flushStart = new ThreadLocal<Long>();
+
+	public IndexingMetrics()
+	{
+		for (int i = 0; i < phaseNanos.length; i++)
+		{
+			phaseNanos[i] = new AtomicLong();
+		}
+	}
+
+	/*
+	 * Method to reset all counters and the peak heap, the clock for docs/sec starts now
+	 */
+	public void start()
+	{
+		for (AtomicLong nanos: phaseNanos)
+		{
+			nanos.set(0);
+		}
+		docs.set(0);
+		bytes.set(0);
+		merges.set(0);
+		flushes.set(0);
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+			{
+				pool.resetPeakUsage();
+			}
+		}
+		startNanos = System.nanoTime();
+		stopNanos = 0;
+	}
+
+	/*
+	 * Method to stop the clock for docs/sec, e.g. before the index is optimized
+	 */
+	public void stop()
+	{
+		stopNanos = System.nanoTime();
+	}
+
+	public void add(Phase phase, long nanos)
+	{
+		phaseNanos[phase.ordinal()].addAndGet(nanos);
+	}
+
+	public void addDoc(long docBytes)
+	{
+		docs.incrementAndGet();
+		bytes.addAndGet(docBytes);
+	}
+
+	public long getNanos(Phase phase)
+	{
+		return phaseNanos[phase.ordinal()].get();
+	}
+
+	public long getDocs()
+	{
+		return docs.get();
+	}
+
+	/*
+	 * Method to time segment flushes and merges of the IndexWriter which is created with iwc
+	 */
+	public void configure(IndexWriterConfig iwc)
+	{
+		iwc.setMergeScheduler(new TimedMergeScheduler());
+		iwc.setInfoStream(new FlushTimingInfoStream());
+	}
+
+	/*
+	 * Method to print progress every intervalSec seconds until stopReporting is called, which has to be
+	 * before the writer is closed
+	 */
+	public void startReporting(final IndexWriter iw, long intervalSec)
+	{
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "indexing-metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable()
+		{
+			private long lastDocs = 0;
+			private long lastNanos = startNanos;
+
+			@Override
+			public void run()
+			{
+				long ramBytesUsed = 0;
+				try
+				{
+					ramBytesUsed = iw.ramBytesUsed();
+				}
+				catch (AlreadyClosedException ex)
+				{
+					// an exception would end the reports silently, a closed writer has no RAM buffer
+				}
+				long now = System.nanoTime();
+				long currentDocs = docs.get();
+				double intervalRate = (currentDocs - lastDocs) / ((now - lastNanos) / 1e9);
+				lastDocs = currentDocs;
+				lastNanos = now;
+
+				System.out.println(String.format("[%.0fs] %d docs, %.1f docs/sec (%.1f overall), %.2f MB/sec, %d segments, %d MB RAM buffer, %d MB heap",
+						(now - startNanos) / 1e9, currentDocs, intervalRate, getDocsPerSec(), getMBPerSec(),
+						countSegments(iw.getDirectory()), ramBytesUsed >> 20, getUsedHeap() >> 20));
+			}
+		}, intervalSec, intervalSec, TimeUnit.SECONDS);
+	}
+
+	public void stopReporting()
+	{
+		if (null != reporter)
+		{
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	/*
+	 * Method to print time per phase and the final throughput, segments and peak heap of the index in dir
+	 */
+	public void printSummary(Directory dir) throws IOException
+	{
+		double elapsedSec = getElapsedNanos() / 1e9;
+
+		System.out.println(String.format("Indexed %d docs (%.1f MB) in %.1f sec: %.1f docs/sec, %.2f MB/sec",
+				docs.get(), bytes.get() / 1e6, elapsedSec, getDocsPerSec(), getMBPerSec()));
+		for (Phase phase: Phase.values())
+		{
+			System.out.println(String.format("  %-13s %10.1f sec (summed over threads)", phase.name().toLowerCase(), getNanos(phase) / 1e9));
+		}
+		System.out.println("  segment flushes: " + flushes.get() + ", merges: " + merges.get());
+
+		DirectoryReader reader = DirectoryReader.open(dir);
+		try
+		{
+			System.out.println("  segments: " + reader.leaves().size());
+		}
+		finally
+		{
+			reader.close();
+		}
+		System.out.println("  peak heap: " + (getPeakHeap() >> 20) + " MB");
+	}
+
+	public double getDocsPerSec()
+	{
+		return docs.get() / (getElapsedNanos() / 1e9);
+	}
+
+	public double getMBPerSec()
+	{
+		return bytes.get() / 1e6 / (getElapsedNanos() / 1e9);
+	}
+
+	/*
+	 * Method to get the time since start, until stop if indexing is over
+	 */
+	public long getElapsedNanos()
+	{
+		return ((stopNanos > 0) ? stopNanos : System.nanoTime()) - startNanos;
+	}
+
+	/*
+	 * Method to count segments written so far, including flushed segments which are not committed yet
+	 */
+	public static int countSegments(Directory dir)
+	{
+		int count = 0;
+		try
+		{
+			for (String file: dir.listAll())
+			{
+				if (file.endsWith(".si"))
+				{
+					count++;
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			// files are removed while merging, the count is only for progress
+		}
+		return count;
+	}
+
+	public static long getUsedHeap()
+	{
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/*
+	 * Method to get peak heap since start, summed over the heap memory pools
+	 */
+	public static long getPeakHeap()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+			{
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/*
+	 * Merge scheduler which adds the time of every merge to MERGE
+	 */
+	private class TimedMergeScheduler extends ConcurrentMergeScheduler
+	{
+		@Override
+		protected void doMerge(MergePolicy.OneMerge merge) throws IOException
+		{
+			long start = System.nanoTime();
+			try
+			{
+				super.doMerge(merge);
+			}
+			finally
+			{
+				add(Phase.MERGE, System.nanoTime() - start);
+				merges.incrementAndGet();
+			}
+		}
+	}
+
+	/*
+	 * Info stream which only listens to the segment flush messages of IndexWriter to time flushes
+	 */
+	private class FlushTimingInfoStream extends InfoStream
+	{
+		@Override
+		public boolean isEnabled(String component)
+		{
+			return "DWPT".equals(component);
+		}
+
+		@Override
+		public void message(String component, String message)
+		{
+			if (message.startsWith("flush postings as segment"))
+			{
+				flushStart.set(System.nanoTime());
+			}
+			else if (message.startsWith("flushed: segment=") && null != flushStart.get())
+			{
+				add(Phase.FLUSH, System.nanoTime() - flushStart.get());
+				flushes.incrementAndGet();
+				flushStart.remove();
+			}
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.util.BytesRef;
+
+/*
+ * Class to find exact and near duplicate docs while the corpus is indexed.
+ * Every TEXT gets a MinHash signature of NUM_HASHES values over its shingles of SHINGLE_SIZE words.
+ * The signature is split in BANDS bands and a doc is only compared with docs which have the same
+ * values in one band (locality sensitive hashing); it is a near duplicate when the share of equal
+ * signature values, an estimate of the Jaccard similarity of the shingles, is at least MIN_SIMILARITY.
+ * Exact duplicates are found by a hash of the normalized words.
+ * The first doc of a group of duplicates is the original, the others are handled by the policy.
+ * All signatures are kept in memory, the detector can be shared by indexing threads: signatures are computed
+ * by every thread on its own, only the lookup and insert of the originals hold the lock.
+ */
+public class NearDuplicateDetector
+{
+	public enum Policy
+	{
+		// duplicates are not indexed
+		SKIP,
+		// a stub doc with DOCNO, HEAD and DUP_OF (the DOCNO of the original) is indexed instead of the duplicate
+		COLLAPSE,
+		// all docs are indexed, every doc gets DUP_CLUSTER with the DOCNO of the original of its group
+		TAG
+	}
+
+	private Policy policy = Policy.SKIP;
+
+	// signatures of the originals one after the other, and their DOCNO, in the order they were seen
+	private int[] signatures = new int[1024 * NUM_HASHES];
+	private List<String> docnos = new ArrayList<String>();
+	// hash of band and its values to the originals with these values, bucket[0] is the number of originals
+	private Map<Long, int[]> bands = new HashMap<Long, int[]>();
+	// hash of the normalized words of an original to its DOCNO
+	private Map<Long, String> exactHashes = new HashMap<Long, String>();
+
+	private long docs = 0;
+	private long exactDuplicates = 0;
+	private long nearDuplicates = 0;
+	private long duplicateTextChars = 0;
+	private long totalTextChars = 0;
+
+	// signature of the current text of every thread
+	private ThreadLocal<TextSignature> textSignature = new ThreadLocal<TextSignature>()
+	{
+		@Override
+		protected TextSignature initialValue()
+		{
+			return new TextSignature();
+		}
+	};
+
+	public NearDuplicateDetector(Policy policy)
+	{
+		this.policy = policy;
+	}
+
+	public Policy getPolicy()
+	{
+		return policy;
+	}
+
+	/*
+	 * Method to apply the policy to a doc created by GenerateIndex, returns the doc to index or null to skip it.
+	 * The returned doc may be the given doc or a new one.
+	 */
+	public Document apply(Document doc)
+	{
+		String docno = doc.get("DOCNO");
+		String original = findOriginal(docno, doc.get("TEXT"));
+
+		if (policy == Policy.TAG)
+		{
+			doc.removeFields(DUP_CLUSTER_FIELD);
+			doc.add(new StringField(DUP_CLUSTER_FIELD, (null == original) ? docno : original, Field.Store.YES));
+			return doc;
+		}
+		if (null == original)
+		{
+			return doc;
+		}
+		if (policy == Policy.SKIP)
+		{
+			return null;
+		}
+
+		Document stub = new Document();
+		stub.add(new StringField("DOCNO", docno, Field.Store.YES));
+		stub.add(new SortedDocValuesField("DOCNO", new BytesRef(docno)));
+		stub.add(new StringField("HEAD", doc.get("HEAD"), Field.Store.YES));
+		stub.add(new StringField(DUP_OF_FIELD, original, Field.Store.YES));
+		return stub;
+	}
+
+	/*
+	 * Method to get the DOCNO of the original of text, or null if text is not a duplicate.
+	 * A text which is not a duplicate is remembered as an original. A text without words (or no TEXT)
+	 * is never a duplicate and is not remembered, otherwise all empty docs would be duplicates of the first one.
+	 */
+	public String findOriginal(String docno, String text)
+	{
+		if (null == text)
+		{
+			text = "";
+		}
+
+		TextSignature ts = textSignature.get();
+		int[] signature = ts.signature;
+		long[] shingle = ts.shingle;
+		long[] bandKeys = ts.bandKeys;
+
+		long exactHash = FNV_OFFSET;
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		int words = 0;
+
+		// words are runs of letters and digits, compared in lower case
+		int length = text.length();
+		int i = 0;
+		while (i < length)
+		{
+			while (i < length && !Character.isLetterOrDigit(text.charAt(i)))
+			{
+				i++;
+			}
+			if (i == length)
+			{
+				break;
+			}
+
+			long wordHash = FNV_OFFSET;
+			while (i < length && Character.isLetterOrDigit(text.charAt(i)))
+			{
+				wordHash = (wordHash ^ Character.toLowerCase(text.charAt(i))) * FNV_PRIME;
+				i++;
+			}
+			exactHash = (exactHash ^ wordHash) * FNV_PRIME;
+
+			shingle[words % SHINGLE_SIZE] = wordHash;
+			words++;
+			if (words >= SHINGLE_SIZE)
+			{
+				addShingle(signature, shingleHash(shingle, words));
+			}
+		}
+		if (0 == words)
+		{
+			countDoc(length);
+			return null;
+		}
+		if (words < SHINGLE_SIZE)
+		{
+			// text shorter than a shingle is one shingle
+			addShingle(signature, shingleHash(shingle, words));
+		}
+		for (int band = 0; band < BANDS; band++)
+		{
+			bandKeys[band] = bandHash(signature, band);
+		}
+
+		return findOrAdd(docno, length, exactHash, signature, bandKeys);
+	}
+
+	private synchronized void countDoc(int length)
+	{
+		docs++;
+		totalTextChars += length;
+	}
+
+	/*
+	 * Method to look up the original of a signature, or remember it as an original
+	 */
+	private synchronized String findOrAdd(String docno, int length, long exactHash, int[] signature, long[] bandKeys)
+	{
+		countDoc(length);
+
+		String original = exactHashes.get(exactHash);
+		if (null != original)
+		{
+			exactDuplicates++;
+			duplicateTextChars += length;
+			return original;
+		}
+
+		original = findNear(signature, bandKeys);
+		if (null != original)
+		{
+			nearDuplicates++;
+			duplicateTextChars += length;
+			return original;
+		}
+
+		exactHashes.put(exactHash, docno);
+		addOriginal(docno, signature, bandKeys);
+		return null;
+	}
+
+	/*
+	 * Method to find an original which shares a band with the signature and is similar enough
+	 */
+	private String findNear(int[] signature, long[] bandKeys)
+	{
+		for (int band = 0; band < BANDS; band++)
+		{
+			int[] bucket = bands.get(bandKeys[band]);
+			if (null == bucket)
+			{
+				continue;
+			}
+			for (int n = 1; n <= bucket[0]; n++)
+			{
+				if (getSimilarity(signature, bucket[n]) >= MIN_SIMILARITY)
+				{
+					return docnos.get(bucket[n]);
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Method to estimate the Jaccard similarity of the text of a signature and an original
+	 */
+	private double getSimilarity(int[] signature, int pos)
+	{
+		int offset = pos * NUM_HASHES;
+		int equal = 0;
+		for (int h = 0; h < NUM_HASHES; h++)
+		{
+			if (signatures[offset + h] == signature[h])
+			{
+				equal++;
+			}
+		}
+		return equal / (double) NUM_HASHES;
+	}
+
+	private void addOriginal(String docno, int[] signature, long[] bandKeys)
+	{
+		int pos = docnos.size();
+		if ((pos + 1) * NUM_HASHES > signatures.length)
+		{
+			int[] newSignatures = new int[signatures.length * 2];
+			System.arraycopy(signatures, 0, newSignatures, 0, pos * NUM_HASHES);
+			signatures = newSignatures;
+		}
+		System.arraycopy(signature, 0, signatures, pos * NUM_HASHES, NUM_HASHES);
+		docnos.add(docno);
+
+		for (int band = 0; band < BANDS; band++)
+		{
+			long key = bandKeys[band];
+			int[] bucket = bands.get(key);
+			if (null == bucket)
+			{
+				bucket = new int[2];
+			}
+			else if (bucket[0] + 1 == bucket.length)
+			{
+				int[] newBucket = new int[bucket.length * 2];
+				System.arraycopy(bucket, 0, newBucket, 0, bucket.length);
+				bucket = newBucket;
+			}
+			bucket[0]++;
+			bucket[bucket[0]] = pos;
+			bands.put(key, bucket);
+		}
+	}
+
+	/*
+	 * Method to hash the values of a band of a signature together with the band number
+	 */
+	private static long bandHash(int[] signature, int band)
+	{
+		long hash = (FNV_OFFSET ^ band) * FNV_PRIME;
+		for (int h = band * ROWS; h < (band + 1) * ROWS; h++)
+		{
+			hash = (hash ^ signature[h]) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/*
+	 * Method to keep the smallest value of every hash function over the shingles
+	 */
+	private static void addShingle(int[] signature, long shingleHash)
+	{
+		for (int h = 0; h < NUM_HASHES; h++)
+		{
+			int value = (int) (mix(shingleHash + h * 0x9e3779b97f4a7c15L) >>> 33);
+			if (value < signature[h])
+			{
+				signature[h] = value;
+			}
+		}
+	}
+
+	/*
+	 * Method to hash the last SHINGLE_SIZE words, the shingle array is used as a ring buffer
+	 */
+	private static long shingleHash(long[] shingle, int words)
+	{
+		long hash = FNV_OFFSET;
+		int count = Math.min(words, SHINGLE_SIZE);
+		for (int n = words - count; n < words; n++)
+		{
+			hash = (hash ^ shingle[n % SHINGLE_SIZE]) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/*
+	 * Method to spread the bits of a hash (finalizer of MurmurHash3)
+	 */
+	private static long mix(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/*
+	 * Method to print how many docs were duplicates and how much TEXT they had
+	 */
+	public synchronized void printReport()
+	{
+		long duplicates = exactDuplicates + nearDuplicates;
+		System.out.println("Docs checked for duplicates: " + docs);
+		System.out.println("  exact duplicates: " + exactDuplicates + ", near duplicates: " + nearDuplicates
+				+ String.format(" (%.1f%% of docs)", (docs > 0) ? 100.0 * duplicates / docs : 0));
+		System.out.println("  TEXT of duplicates: " + (duplicateTextChars >> 10) + " K chars"
+				+ String.format(" (%.1f%% of all TEXT), policy %s", (totalTextChars > 0) ? 100.0 * duplicateTextChars / totalTextChars : 0, policy));
+	}
+
+	public synchronized long getDuplicates()
+	{
+		return exactDuplicates + nearDuplicates;
+	}
+
+	/*
+	 * Arrays of one thread to compute the signature of a text and the keys of its bands
+	 */
+	private static class TextSignature
+	{
+		private int[] signature = new int[NUM_HASHES];
+		private long[] shingle = new long[SHINGLE_SIZE];
+		private long[] bandKeys = new long[BANDS];
+	}
+
+	// field of stub docs with the DOCNO of the original, and of tagged docs with the DOCNO of the original of their group
+	public static final String DUP_OF_FIELD = "DUP_OF";
+	public static final String DUP_CLUSTER_FIELD = "DUP_CLUSTER";
+
+	public static final int SHINGLE_SIZE = 3;
+	// signature of BANDS bands with ROWS values each
+	public static final int BANDS = 8;
+	public static final int ROWS = 4;
+	public static final int NUM_HASHES = BANDS * ROWS;
+	// estimated Jaccard similarity of the shingles from which a doc is a near duplicate
+	public static final double MIN_SIMILARITY = 0.8;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+}
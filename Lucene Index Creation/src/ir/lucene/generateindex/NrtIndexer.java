@@ -0,0 +1,214 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to index docs while they are searched (near-real-time). The IndexWriter stays open, a background
+ * thread reopens the searcher from the writer at least every maxStaleSec seconds, so new docs are
+ * searchable without a commit. Every acquired searcher is a point-in-time snapshot which does not change
+ * while it is used, it has to be released after the query.
+ * Docs replace the indexed docs with the same DOCNO. Commits are only needed for durability.
+ */
+public class NrtIndexer implements Closeable
+{
+	private GenerateIndex indexer = new GenerateIndex();
+
+	private Directory dir = null;
+	private IndexWriter iw = null;
+	private TrackingIndexWriter trackingWriter = null;
+	private SearcherManager searcherManager = null;
+	private ControlledRealTimeReopenThread<IndexSearcher> reopenThread = null;
+
+	/*
+	 * The searcher is reopened every maxStaleSec seconds, or after minStaleSec seconds when a thread
+	 * waits for a generation
+	 */
+	public NrtIndexer(Analyzer analyzer, String index_dir, double maxStaleSec, double minStaleSec) throws IOException
+	{
+		dir = FSDirectory.open(new File(index_dir));
+
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+		// shards of an earlier build would be opened instead of this index
+		ShardedIndexer.removeShards(index_dir);
+		iw = new IndexWriter(dir, iwc);
+
+		// docs are added by a single thread right after they are created
+		indexer.setReuseDocuments(true);
+
+		trackingWriter = new TrackingIndexWriter(iw);
+		searcherManager = new SearcherManager(iw, true, new SearcherFactory());
+
+		reopenThread = new ControlledRealTimeReopenThread<IndexSearcher>(trackingWriter, searcherManager, maxStaleSec, minStaleSec);
+		reopenThread.setName("nrt-reopen");
+		reopenThread.setDaemon(true);
+		reopenThread.start();
+	}
+
+	/*
+	 * Method to index the content of <DOC></DOC>, returns the generation after which it is searchable
+	 */
+	public long addDoc(CharSequence data) throws IOException
+	{
+		Document doc = indexer.createDoc(data, iw.getAnalyzer());
+		return trackingWriter.updateDocument(new Term("DOCNO", doc.get("DOCNO")), doc);
+	}
+
+	/*
+	 * Method to index all docs of a trectext file, returns the generation after which all of them are searchable
+	 */
+	public long indexFile(File file) throws IOException
+	{
+		long generation = trackingWriter.getGeneration();
+		TrecCorpusReader corpus = new TrecCorpusReader(file);
+		try
+		{
+			while (corpus.nextDoc())
+			{
+				generation = addDoc(corpus.getDoc());
+			}
+		}
+		finally
+		{
+			corpus.close();
+		}
+		return generation;
+	}
+
+	/*
+	 * Method to wait until docs added up to generation are searchable, for searches which must see their own updates
+	 */
+	public void waitForGeneration(long generation) throws InterruptedException
+	{
+		reopenThread.waitForGeneration(generation);
+	}
+
+	/*
+	 * Method to get the current snapshot of the index, it has to be given back with release
+	 */
+	public IndexSearcher acquire() throws IOException
+	{
+		return searcherManager.acquire();
+	}
+
+	public void release(IndexSearcher searcher) throws IOException
+	{
+		searcherManager.release(searcher);
+	}
+
+	public void commit() throws IOException
+	{
+		iw.commit();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		reopenThread.close();
+		searcherManager.close();
+		iw.close();
+		dir.close();
+	}
+
+	/*
+	 * Method to index files which are new or changed since the last call, returns the number of files indexed
+	 */
+	public int indexNewFiles(File folder, Map<String, Long> indexedFiles) throws IOException
+	{
+		int count = 0;
+		for (File fileEntry: folder.listFiles())
+		{
+			Long lastModified = indexedFiles.get(fileEntry.getPath());
+			if (null != lastModified && lastModified == fileEntry.lastModified())
+			{
+				continue;
+			}
+
+			try
+			{
+				indexFile(fileEntry);
+				indexedFiles.put(fileEntry.getPath(), fileEntry.lastModified());
+				count++;
+			}
+			catch(IOException ex)
+			{
+				System.out.println(fileEntry + ": " + ex.getMessage());
+			}
+		}
+		return count;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		// directory where new trectext files arrive, and seconds until new docs are searchable
+		String incoming_dir = (args.length > 0) ? args[0] : GenerateIndex.CORPUS_DIR;
+		double refreshSec = (args.length > 1) ? Double.parseDouble(args[1]) : DEFAULT_REFRESH_SEC;
+
+		final NrtIndexer indexer = new NrtIndexer(new StandardAnalyzer(), GenerateIndex.STD_ANALYZER_INDEX_DIR, refreshSec, MIN_STALE_SEC);
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					indexer.commit();
+					indexer.close();
+				}
+				catch (IOException ex)
+				{
+					System.out.println(ex.getMessage());
+				}
+			}
+		});
+
+		Map<String, Long> indexedFiles = new HashMap<String, Long>();
+		File folder = new File(incoming_dir);
+		while (true)
+		{
+			if (indexer.indexNewFiles(folder, indexedFiles) > 0)
+			{
+				indexer.commit();
+			}
+
+			IndexSearcher searcher = indexer.acquire();
+			try
+			{
+				System.out.println("Searchable documents: " + searcher.getIndexReader().numDocs());
+			}
+			finally
+			{
+				indexer.release(searcher);
+			}
+
+			Thread.sleep(POLL_INTERVAL_MS);
+		}
+	}
+
+	public static final double DEFAULT_REFRESH_SEC = 1.0;
+	public static final double MIN_STALE_SEC = 0.1;
+	public static final long POLL_INTERVAL_MS = 5000;
+}
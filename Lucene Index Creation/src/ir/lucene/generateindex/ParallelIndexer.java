@@ -0,0 +1,331 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to generate index on trectext data with a pool of worker threads.
+ * Every corpus file is read by a fork-join task which hands out batches of documents as sub tasks,
+ * so idle workers steal batches of an oversized file instead of waiting for it. A file task only has a few
+ * batches in flight, so the docs of a large file are not all in memory at once.
+ * All workers add documents to the same (thread-safe) IndexWriter.
+ */
+public class ParallelIndexer
+{
+	private GenerateIndex indexer = new GenerateIndex();
+
+	private int numThreads = 0;
+
+	// number of documents handed to a worker in one sub task
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	// number of forked batches of a file which are not joined yet
+	private int maxPendingBatches = 0;
+
+	private double ramBufferSizeMB = DEFAULT_RAM_BUFFER_MB;
+
+	// documents indexed and time spent indexing by each worker thread
+	private Map<String, AtomicLong> workerDocs = new ConcurrentHashMap<String, AtomicLong>();
+	private Map<String, AtomicLong> workerNanos = new ConcurrentHashMap<String, AtomicLong>();
+
+	public ParallelIndexer(int numThreads)
+	{
+		this.numThreads = numThreads;
+		this.maxPendingBatches = PENDING_BATCHES_PER_THREAD * numThreads;
+	}
+
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = batchSize;
+	}
+
+	public void setMaxPendingBatches(int maxPendingBatches)
+	{
+		this.maxPendingBatches = maxPendingBatches;
+	}
+
+	public void setRamBufferSizeMB(double ramBufferSizeMB)
+	{
+		this.ramBufferSizeMB = ramBufferSizeMB;
+	}
+
+	public void setMetrics(IndexingMetrics metrics)
+	{
+		indexer.setMetrics(metrics);
+	}
+
+	public void setDuplicateDetector(NearDuplicateDetector duplicateDetector)
+	{
+		indexer.setDuplicateDetector(duplicateDetector);
+	}
+
+	/*
+	 * Method to generate index for all trectext files in the corpus directory using the worker pool
+	 */
+	public void indexData(Analyzer analyzer, String corpus_dir, String out_index_dir) throws IOException
+	{
+		Directory dir = FSDirectory.open(new File(out_index_dir));
+
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+		iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+		// one in-memory segment per worker, otherwise workers queue up on the default 8 thread states
+		iwc.setMaxThreadStates(numThreads);
+
+		IndexingMetrics metrics = indexer.getMetrics();
+		if (null != metrics)
+		{
+			metrics.configure(iwc);
+			metrics.start();
+		}
+
+		// shards of an earlier build would be opened instead of this index
+		ShardedIndexer.removeShards(out_index_dir);
+
+		IndexWriter indexwriter = new IndexWriter(dir, iwc);
+
+		if (null != metrics)
+		{
+			metrics.startReporting(indexwriter, GenerateIndex.METRICS_INTERVAL_SEC);
+		}
+
+		workerDocs.clear();
+		workerNanos.clear();
+
+		List<FileTask> tasks = new ArrayList<FileTask>();
+		for (File fileEntry: new File(corpus_dir).listFiles())
+		{
+			tasks.add(new FileTask(indexwriter, fileEntry));
+		}
+
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try
+		{
+			pool.invoke(new CorpusTask(tasks));
+		}
+		finally
+		{
+			pool.shutdown();
+			// the reporter reads the writer, it is stopped before the writer is closed
+			if (null != metrics)
+			{
+				metrics.stopReporting();
+			}
+			indexwriter.close();
+		}
+		printWorkerStats(System.nanoTime() - start);
+
+		if (null != metrics)
+		{
+			metrics.stop();
+			metrics.printSummary(dir);
+		}
+	}
+
+	/*
+	 * Method to print documents and docs/sec indexed by each worker and for the whole run
+	 */
+	public void printWorkerStats(long elapsedNanos)
+	{
+		long totalDocs = 0;
+		double elapsedSec = elapsedNanos / 1e9;
+
+		for (Map.Entry<String, AtomicLong> entry: workerDocs.entrySet())
+		{
+			long docs = entry.getValue().get();
+			double busySec = workerNanos.get(entry.getKey()).get() / 1e9;
+			totalDocs += docs;
+			System.out.println(entry.getKey() + ": " + docs + " docs, "
+					+ String.format("%.1f", docs / elapsedSec) + " docs/sec, busy " + String.format("%.1f", busySec) + " sec");
+		}
+		System.out.println("Total: " + totalDocs + " docs in " + String.format("%.1f", elapsedSec) + " sec, "
+				+ String.format("%.1f", totalDocs / elapsedSec) + " docs/sec using " + numThreads + " workers");
+	}
+
+	private void recordWork(int docs, long nanos)
+	{
+		String worker = Thread.currentThread().getName();
+		AtomicLong count = workerDocs.get(worker);
+		if (null == count)
+		{
+			// each worker thread only ever touches its own entry
+			count = new AtomicLong();
+			workerDocs.put(worker, count);
+			workerNanos.put(worker, new AtomicLong());
+		}
+		count.addAndGet(docs);
+		workerNanos.get(worker).addAndGet(nanos);
+	}
+
+	/*
+	 * Root task which forks one task per corpus file
+	 */
+	private class CorpusTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private List<FileTask> tasks = null;
+
+		public CorpusTask(List<FileTask> tasks)
+		{
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute()
+		{
+			invokeAll(tasks);
+		}
+	}
+
+	/*
+	 * Task to read <DOC></DOC> from one trectext file and fork batches of docs for indexing
+	 */
+	private class FileTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private IndexWriter iw = null;
+		private File file = null;
+
+		public FileTask(IndexWriter iw, File file)
+		{
+			this.iw = iw;
+			this.file = file;
+		}
+
+		@Override
+		protected void compute()
+		{
+			// forked batches, oldest first
+			Deque<BatchTask> forked = new ArrayDeque<BatchTask>();
+			List<CharSequence> batch = new ArrayList<CharSequence>(batchSize);
+
+			try
+			{
+				TrecCorpusReader corpus = new TrecCorpusReader(file);
+				try
+				{
+					IndexingMetrics metrics = indexer.getMetrics();
+					long start = System.nanoTime();
+					while (corpus.nextDoc())
+					{
+						if (null != metrics)
+						{
+							metrics.add(IndexingMetrics.Phase.READ, System.nanoTime() - start);
+						}
+						batch.add(corpus.getDoc());
+
+						// hand a full batch to the pool so that idle workers can steal it
+						if (batch.size() == batchSize)
+						{
+							BatchTask task = new BatchTask(iw, batch);
+							task.fork();
+							forked.add(task);
+							batch = new ArrayList<CharSequence>(batchSize);
+
+							// wait for the oldest batch before reading more docs, this worker indexes it if nobody stole it
+							if (forked.size() > maxPendingBatches)
+							{
+								forked.poll().join();
+							}
+						}
+						start = System.nanoTime();
+					}
+				}
+				finally
+				{
+					corpus.close();
+				}
+			}
+			catch(IOException ex)
+			{
+				System.out.println(file + ": " + ex.getMessage());
+			}
+
+			// index the remaining docs in this worker and wait for the stolen batches
+			new BatchTask(iw, batch).compute();
+			for (BatchTask task: forked)
+			{
+				task.join();
+			}
+		}
+	}
+
+	/*
+	 * Task to add a batch of docs to the index
+	 */
+	private class BatchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private IndexWriter iw = null;
+		private List<CharSequence> docs = null;
+
+		public BatchTask(IndexWriter iw, List<CharSequence> docs)
+		{
+			this.iw = iw;
+			this.docs = docs;
+		}
+
+		@Override
+		protected void compute()
+		{
+			long start = System.nanoTime();
+			int indexed = 0;
+			for (CharSequence data: docs)
+			{
+				try
+				{
+					indexer.addDoc(iw, data);
+					indexed++;
+				}
+				catch(IOException ex)
+				{
+					System.out.println(ex.getMessage());
+				}
+			}
+			recordWork(indexed, System.nanoTime() - start);
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 0)
+		{
+			numThreads = Integer.parseInt(args[0]);
+		}
+
+		ParallelIndexer indexer = new ParallelIndexer(numThreads);
+		indexer.indexData(new StandardAnalyzer(), GenerateIndex.CORPUS_DIR, GenerateIndex.STD_ANALYZER_INDEX_DIR);
+		new GenerateIndex().indexAnalyzer(GenerateIndex.STD_ANALYZER_INDEX_DIR);
+	}
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	// forked batches of a file in flight per worker thread
+	public static final int PENDING_BATCHES_PER_THREAD = 2;
+	public static final double DEFAULT_RAM_BUFFER_MB = 256;
+}
@@ -2,12 +2,8 @@ package ir.lucene.generateindex;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -17,6 +13,7 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -27,52 +24,64 @@ import org.apache.lucene.util.BytesRef;
 
 public class SearchTRECtopics 
 {
-	// map to store term and all the documents which contain it with frequency
-	private Map<Term, Map<Integer, Integer>> termFreqMap = new HashMap<Term, Map<Integer, Integer>>();
-	// map to store term and its IDF
-	private Map<Term, Double> termIDF = new HashMap<Term, Double>();
+	// doc ids in increasing order and frequencies of each query term, and its IDF, in the order of the query
+	private int[][] termDocs = null;
+	private int[][] termFreqs = null;
+	private int[] termDocFreqs = null;
+	private double[] termIDF = null;
 	
 	private IndexReader reader = null;
 		
-	private PriorityQueue<DocScore> pq = null;
+	private TopKCollector topK = null;
 	
 	public void calculateTermIDF(Set<Term> queryterms) throws IOException
 	{
 		int totalDoc = reader.maxDoc(); // total number of documents in the corpus
+		termDocs = new int[queryterms.size()][];
+		termFreqs = new int[queryterms.size()][];
+		termDocFreqs = new int[queryterms.size()];
+		termIDF = new double[queryterms.size()];
 		
 		// calculate idf and term frequency in each document
+		int i = 0;
 		for (Term t: queryterms)
 		{
-			Map<Integer, Integer> termFreq = new HashMap<Integer, Integer>();
+			// docFreq also counts deleted documents, so the arrays are large enough
+			int[] docs = new int[reader.docFreq(t)];
+			int[] freqs = new int[docs.length];
 			
-			// get the term frequency of "new" within each document containing it for <field>TEXT</field>
+			// get the term frequency within each document containing it for <field>TEXT</field>
 			DocsEnum de = MultiFields.getTermDocsEnum(reader, MultiFields.getLiveDocs(reader), "TEXT", new BytesRef(t.text()));
 			int doc = 0;
 			int termDocFreq = 0;
-			while ((doc = de.nextDoc()) != DocsEnum.NO_MORE_DOCS)
+			while ((null != de) && (doc = de.nextDoc()) != DocsEnum.NO_MORE_DOCS)
 			{
-				termFreq.put(de.docID(), de.freq());
+				docs[termDocFreq] = doc;
+				freqs[termDocFreq] = de.freq();
 				termDocFreq++;
 			}
 			
-			termFreqMap.put(t, termFreq);
-			
-			double idf = 0;
+			termDocs[i] = docs;
+			termFreqs[i] = freqs;
+			termDocFreqs[i] = termDocFreq;
 			if (termDocFreq > 0)
 			{
-				idf = Math.log(1+ (totalDoc/termDocFreq));
+				termIDF[i] = Math.log(1+ (totalDoc/termDocFreq));
 			}
-			termIDF.put(t, idf);
+			i++;
 		}
 	}
 	
-	public void calculateTFIDF(Set<Term> queryterms, int resultSize) throws IOException
+	public void calculateTFIDF(Set<Term> queryterms) throws IOException
 	{
 		// use DefaultSimilarity.decodeNormValue(..) to normalize document length
 		DefaultSimilarity dsimi = new DefaultSimilarity();
 		
 		// get the segment of the index
 		List<AtomicReaderContext> leafContexts = reader.getContext().reader().leaves();
+		
+		// position of each term in its doc ids, documents are visited in increasing order
+		int[] positions = new int[termDocs.length];
 
 		for (AtomicReaderContext leafContext: leafContexts)
 		{
@@ -80,33 +89,38 @@ public class SearchTRECtopics
 			int numberOfDoc = leafContext.reader().maxDoc();
 			int maxSegDoc = startDocNo + numberOfDoc;
 			
+			// exact length column of the segment, or the lossy norms of indexes without it
+			NumericDocValues lengths = leafContext.reader().getNumericDocValues(GenerateIndex.TEXT_LENGTH_FIELD);
+			NumericDocValues norms = leafContext.reader().getNormValues("TEXT");
+			
 			for (int docId = startDocNo; docId < maxSegDoc; docId++)
 			{
 				// get normalized length for each document in the segment
-				float normDocLen = dsimi.decodeNormValue(leafContext.reader().getNormValues("TEXT").get(docId - startDocNo));
-				//System.out.println("Normalized length for doc ("+docId+") is "+ normDocLen);
-				double tf_idf = 0;
-				for (Term t: queryterms)
+				float normDocLen = 1f;
+				if (null == lengths)
 				{
-					if (termFreqMap.get(t).containsKey(docId))
+					// segments without TEXT (e.g. only COLLAPSE stubs) have no norms
+					if (null != norms)
 					{
-						tf_idf += (termFreqMap.get(t).get(docId)/normDocLen) * termIDF.get(t);
+						normDocLen = dsimi.decodeNormValue(norms.get(docId - startDocNo));
 					}
 				}
-				
-				if (resultSize != 0)
+				else if (lengths.get(docId - startDocNo) > 0)
 				{
-					pq.add(new DocScore(docId, tf_idf));
-					resultSize--;
+					normDocLen = (float) (1.0 / Math.sqrt(lengths.get(docId - startDocNo)));
 				}
-				else
+				//System.out.println("Normalized length for doc ("+docId+") is "+ normDocLen);
+				double tf_idf = 0;
+				for (int i = 0; i < termDocs.length; i++)
 				{
-					if (pq.peek().getScore() < tf_idf)
+					if (positions[i] < termDocFreqs[i] && termDocs[i][positions[i]] == docId)
 					{
-						pq.poll();
-						pq.add(new DocScore(docId, tf_idf));
+						tf_idf += (termFreqs[i][positions[i]]/normDocLen) * termIDF[i];
+						positions[i]++;
 					}
 				}
+				
+				topK.collect(docId, tf_idf);
 			}
 		}
 	}
@@ -126,19 +140,19 @@ public class SearchTRECtopics
 		Set<Term> queryterms = new LinkedHashSet<Term>();
 		query.extractTerms(queryterms);
 		
-		pq = new PriorityQueue<DocScore>(resultSize, new DocScoreComparator());
+		topK = new TopKCollector(resultSize);
 		
 		reader = DirectoryReader.open(FSDirectory.open(new File("E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\index\\default")));
 		
 		calculateTermIDF(queryterms);
 		
-		calculateTFIDF(queryterms, resultSize);
+		calculateTFIDF(queryterms);
 		
 		System.out.println("Top results are: ");
-		while(!pq.isEmpty())
+		int n = topK.sort();
+		for (int i = 0; i < n; i++)
 		{
-			DocScore ds = pq.poll();
-			System.out.println("DocId = "+ ds.getDocId()+ "  Score = "+ ds.getScore());
+			System.out.println("DocId = "+ topK.getDocId(i)+ "  Score = "+ topK.getScore(i));
 		}
 	}
 	
@@ -148,55 +162,3 @@ public class SearchTRECtopics
 		search.getRelevanceScore("Airbus Subsidies", 10);
 	}
 }
-
-class DocScore
-{
-	private int docId;
-	private double score;
-	
-	public DocScore(int docId, double score)
-	{
-		this.docId = docId;
-		this.score = score;
-	}
-	
-	public int getDocId() 
-	{
-		return docId;
-	}
-	
-	public void setDocId(int docId) 
-	{
-		this.docId = docId;
-	}
-	
-	public double getScore() 
-	{
-		return score;
-	}
-	
-	public void setScore(double score) 
-	{
-		this.score = score;
-	}
-}
-
-class DocScoreComparator implements Comparator<DocScore>
-{
-	@Override
-	public int compare(DocScore doc1, DocScore doc2) 
-	{
-		if (doc1.getScore() > doc2.getScore())
-		{
-			return 1;
-		}
-		else if (doc1.getScore() < doc2.getScore())
-		{
-			return -1;
-		}
-		else
-		{
-			return 0;
-		}
-	}
-}
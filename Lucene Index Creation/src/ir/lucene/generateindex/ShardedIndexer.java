@@ -0,0 +1,320 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to build the index as N shards in parallel, each shard has its own IndexWriter and directory
+ * (<index dir>/shard-<n>). Corpus files are spread over the shards by size.
+ * The shards can be merged into <index dir> with addIndexes, or left as they are; the search
+ * classes open a directory of shards as one index through a MultiReader.
+ */
+public class ShardedIndexer
+{
+	private GenerateIndex indexer = new GenerateIndex();
+
+	private int numShards = 0;
+
+	public ShardedIndexer(int numShards)
+	{
+		this.numShards = numShards;
+	}
+
+	/*
+	 * Method to build one index per shard in parallel, and merge them into out_index_dir if merge is set
+	 */
+	public void indexData(final Analyzer analyzer, String corpus_dir, String out_index_dir, boolean merge) throws IOException
+	{
+		List<List<File>> shards = partition(new File(corpus_dir).listFiles());
+
+		// shards of an earlier build with more shards would be opened with the new ones
+		new File(out_index_dir, SHARD_COUNT_FILE).delete();
+		for (int i = numShards; getShardDir(out_index_dir, i).isDirectory(); i++)
+		{
+			deleteShardDir(out_index_dir, i);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numShards);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		final Directory[] shardDirs = new Directory[numShards];
+
+		for (int i = 0; i < numShards; i++)
+		{
+			shardDirs[i] = FSDirectory.open(getShardDir(out_index_dir, i));
+			final Directory shardDir = shardDirs[i];
+			final List<File> files = shards.get(i);
+
+			results.add(pool.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws IOException
+				{
+					indexShard(analyzer, shardDir, files);
+					return null;
+				}
+			}));
+		}
+
+		try
+		{
+			for (Future<Void> result: results)
+			{
+				result.get();
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new IOException(ex.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		if (merge)
+		{
+			mergeShards(analyzer, out_index_dir, shardDirs);
+		}
+		else
+		{
+			for (Directory shardDir: shardDirs)
+			{
+				shardDir.close();
+			}
+			writeShardCount(out_index_dir, numShards);
+		}
+	}
+
+	/*
+	 * Method to index the corpus files of one shard
+	 */
+	public void indexShard(Analyzer analyzer, Directory dir, List<File> files) throws IOException
+	{
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+
+		IndexWriter indexwriter = new IndexWriter(dir, iwc);
+		try
+		{
+			for (File fileEntry: files)
+			{
+				try
+				{
+					indexer.indexFile(indexwriter, fileEntry.getPath());
+				}
+				catch(IOException ex)
+				{
+					System.out.println(fileEntry + ": " + ex.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			indexwriter.close();
+		}
+	}
+
+	/*
+	 * Method to copy all shards into one index and remove the shard directories
+	 */
+	public void mergeShards(Analyzer analyzer, String out_index_dir, Directory[] shardDirs) throws IOException
+	{
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+
+		IndexWriter indexwriter = new IndexWriter(FSDirectory.open(new File(out_index_dir)), iwc);
+		try
+		{
+			indexwriter.addIndexes(shardDirs);
+		}
+		finally
+		{
+			indexwriter.close();
+		}
+
+		for (int i = 0; i < shardDirs.length; i++)
+		{
+			shardDirs[i].close();
+			deleteShardDir(out_index_dir, i);
+		}
+	}
+
+	/*
+	 * Method to remove the directory of a shard with its files
+	 */
+	public static void deleteShardDir(String index_dir, int shard)
+	{
+		File shardDir = getShardDir(index_dir, shard);
+		File[] files = shardDir.listFiles();
+		if (null != files)
+		{
+			for (File file: files)
+			{
+				file.delete();
+			}
+		}
+		shardDir.delete();
+	}
+
+	/*
+	 * Method to remove the shards of an earlier sharded build and their count, so that readers open the plain
+	 * index which is built into the same directory
+	 */
+	public static void removeShards(String index_dir)
+	{
+		new File(index_dir, SHARD_COUNT_FILE).delete();
+		for (int i = 0; getShardDir(index_dir, i).isDirectory(); i++)
+		{
+			deleteShardDir(index_dir, i);
+		}
+	}
+
+	/*
+	 * Method to record the number of shards of a build, readers open exactly this many shards
+	 */
+	public static void writeShardCount(String index_dir, int numShards) throws IOException
+	{
+		Writer out = new OutputStreamWriter(new FileOutputStream(new File(index_dir, SHARD_COUNT_FILE)), StandardCharsets.UTF_8);
+		try
+		{
+			out.write(Integer.toString(numShards));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/*
+	 * Method to get the number of shards of the last build, -1 for indexes built before the count was recorded
+	 */
+	public static int readShardCount(String index_dir) throws IOException
+	{
+		File countFile = new File(index_dir, SHARD_COUNT_FILE);
+		if (!countFile.isFile())
+		{
+			return -1;
+		}
+		return Integer.parseInt(new String(Files.readAllBytes(countFile.toPath()), StandardCharsets.UTF_8).trim());
+	}
+
+	/*
+	 * Method to spread files over the shards, largest file first into the shard with least bytes
+	 */
+	public List<List<File>> partition(File[] files)
+	{
+		File[] sorted = files.clone();
+		Arrays.sort(sorted, new Comparator<File>()
+		{
+			@Override
+			public int compare(File f1, File f2)
+			{
+				return Long.compare(f2.length(), f1.length());
+			}
+		});
+
+		List<List<File>> shards = new ArrayList<List<File>>();
+		long[] shardBytes = new long[numShards];
+		for (int i = 0; i < numShards; i++)
+		{
+			shards.add(new ArrayList<File>());
+		}
+
+		for (File file: sorted)
+		{
+			int smallest = 0;
+			for (int i = 1; i < numShards; i++)
+			{
+				if (shardBytes[i] < shardBytes[smallest])
+				{
+					smallest = i;
+				}
+			}
+			shards.get(smallest).add(file);
+			shardBytes[smallest] += file.length();
+		}
+		return shards;
+	}
+
+	public static File getShardDir(String index_dir, int shard)
+	{
+		return new File(index_dir, SHARD_DIR_PREFIX + shard);
+	}
+
+	/*
+	 * Method to open all shards in an index directory as one index, or the index itself when it has no shards.
+	 * Merging and the builds of a plain index remove the shards, so shards found here are never older than the index
+	 * next to them. The recorded
+	 * number of shards is opened; indexes without the record are probed from shard-0 until one is missing.
+	 */
+	public static IndexReader openReader(String index_dir) throws IOException
+	{
+		List<IndexReader> shardReaders = new ArrayList<IndexReader>();
+		int shardCount = readShardCount(index_dir);
+		for (int i = 0; (shardCount >= 0) ? i < shardCount : getShardDir(index_dir, i).isDirectory(); i++)
+		{
+			shardReaders.add(DirectoryReader.open(FSDirectory.open(getShardDir(index_dir, i))));
+		}
+
+		if (shardReaders.isEmpty())
+		{
+			return DirectoryReader.open(FSDirectory.open(new File(index_dir)));
+		}
+		return new MultiReader(shardReaders.toArray(new IndexReader[shardReaders.size()]));
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int numShards = Runtime.getRuntime().availableProcessors();
+		boolean merge = false;
+		if (args.length > 0)
+		{
+			numShards = Integer.parseInt(args[0]);
+		}
+		if (args.length > 1)
+		{
+			merge = "merge".equals(args[1]);
+		}
+
+		ShardedIndexer indexer = new ShardedIndexer(numShards);
+		indexer.indexData(new StandardAnalyzer(), GenerateIndex.CORPUS_DIR, GenerateIndex.STD_ANALYZER_INDEX_DIR, merge);
+	}
+
+	public static final String SHARD_DIR_PREFIX = "shard-";
+	// file in the index directory with the number of shards of the last build
+	public static final String SHARD_COUNT_FILE = "shards.count";
+}
@@ -0,0 +1,58 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import org.apache.lucene.document.Field;
+
+/*
+ * Profiles of what an index keeps of TEXT besides its postings. TEXT is always indexed, the profile only
+ * decides whether and how its content is stored. The small tags (DOCNO, HEAD, BYLINE, DATELINE) are stored
+ * in every profile.
+ */
+public enum StorageProfile
+{
+	// TEXT is not stored, the index only answers queries
+	SEARCH_ONLY("search-only"),
+	// TEXT is compressed with TextCompressor into the doc values column TEXT_COMPRESSED, away from the stored fields
+	SNIPPET("snippet"),
+	// TEXT is stored with the other stored fields
+	FULL("full");
+
+	private String name = null;
+
+	private StorageProfile(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public Field.Store getTextStore()
+	{
+		return (this == FULL) ? Field.Store.YES : Field.Store.NO;
+	}
+
+	public boolean isTextCompressed()
+	{
+		return this == SNIPPET;
+	}
+
+	/*
+	 * Method to get the profile with the given name, e.g. "search-only"
+	 */
+	public static StorageProfile forName(String name)
+	{
+		for (StorageProfile profile: values())
+		{
+			if (profile.name.equalsIgnoreCase(name) || profile.name().equalsIgnoreCase(name))
+			{
+				return profile;
+			}
+		}
+		throw new IllegalArgumentException("Unknown storage profile: " + name);
+	}
+}
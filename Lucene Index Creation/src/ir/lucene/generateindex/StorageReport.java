@@ -0,0 +1,165 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/*
+ * Class to compare the storage profiles: a sample of the corpus is indexed with every profile and the size
+ * of the index, of its stored fields and of its doc values is printed with the latency of the same queries,
+ * once for the postings only and once for a result page which also loads the DOCNO and TEXT of the top docs.
+ */
+public class StorageReport
+{
+	/*
+	 * Method to index the files into index_dir with the given profile, merged to one segment without compound files
+	 */
+	public void buildIndex(Analyzer analyzer, File[] files, String index_dir, StorageProfile profile) throws IOException
+	{
+		GenerateIndex indexer = new GenerateIndex();
+		indexer.setReuseDocuments(true);
+		indexer.setStorageProfile(profile);
+
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_10_1, analyzer);
+		iwc.setOpenMode(OpenMode.CREATE);
+		iwc.setUseCompoundFile(false);
+		iwc.getMergePolicy().setNoCFSRatio(0);
+
+		IndexWriter indexwriter = new IndexWriter(FSDirectory.open(new File(index_dir)), iwc);
+		try
+		{
+			for (File file: files)
+			{
+				indexer.indexFile(indexwriter, file.getPath());
+			}
+			indexwriter.forceMerge(1);
+		}
+		finally
+		{
+			indexwriter.close();
+		}
+	}
+
+	/*
+	 * Method to get the size of the files of dir with one of the extensions
+	 */
+	public static long getFilesSize(Directory dir, String... extensions) throws IOException
+	{
+		List<String> extensionList = Arrays.asList(extensions);
+		long size = 0;
+		for (String file: dir.listAll())
+		{
+			if (extensionList.contains(IndexFileNames.getExtension(file)))
+			{
+				size += dir.fileLength(file);
+			}
+		}
+		return size;
+	}
+
+	/*
+	 * Method to get the mean latency in microseconds of a result page of every query: the top PAGE_SIZE docs
+	 * with their DOCNO and, if the index has it, their TEXT. The reader should be warmed up by IndexBenchmark.measureLatency.
+	 */
+	public double measurePageLatency(IndexReader reader, List<Query> queries, int rounds) throws IOException
+	{
+		IndexSearcher searcher = new IndexSearcher(reader);
+		Set<String> docnoField = Collections.singleton("DOCNO");
+		long chars = 0;
+
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++)
+		{
+			for (Query query: queries)
+			{
+				for (ScoreDoc scoreDoc: searcher.search(query, PAGE_SIZE).scoreDocs)
+				{
+					chars += reader.document(scoreDoc.doc, docnoField).get("DOCNO").length();
+					String text = TextCompressor.getText(reader, scoreDoc.doc);
+					if (null != text)
+					{
+						chars += Math.min(text.length(), SNIPPET_LENGTH);
+					}
+				}
+			}
+		}
+		double latency = (System.nanoTime() - start) / 1e3 / (rounds * queries.size());
+		// keep the loaded values from being optimized away
+		if (chars < 0)
+		{
+			System.out.println(chars);
+		}
+		return latency;
+	}
+
+	/*
+	 * Usage: StorageReport [number of files] [temp dir]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int sampleSize = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SAMPLE_SIZE;
+		String temp_dir = (args.length > 1) ? args[1] : System.getProperty("java.io.tmpdir");
+
+		File[] files = new File(GenerateIndex.CORPUS_DIR).listFiles();
+		Arrays.sort(files);
+		File[] sample = Arrays.copyOf(files, Math.min(sampleSize, files.length));
+
+		StorageReport report = new StorageReport();
+		Analyzer analyzer = new StandardAnalyzer();
+
+		StorageProfile[] profiles = StorageProfile.values();
+		IndexReader[] readers = new IndexReader[profiles.length];
+		for (int i = 0; i < profiles.length; i++)
+		{
+			String index_dir = new File(temp_dir, "storage-" + profiles[i].getName()).getPath();
+			report.buildIndex(analyzer, sample, index_dir, profiles[i]);
+			readers[i] = DirectoryReader.open(FSDirectory.open(new File(index_dir)));
+		}
+		List<Query> queries = IndexBenchmark.getQueries(readers[0], IndexBenchmark.NUM_QUERIES);
+
+		System.out.println("profile      index MB  stored MB  doc values MB  us/query  us/page");
+		long fullSize = IndexBenchmark.getDirectorySize(((DirectoryReader) readers[StorageProfile.FULL.ordinal()]).directory());
+		for (int i = 0; i < profiles.length; i++)
+		{
+			Directory dir = ((DirectoryReader) readers[i]).directory();
+			long size = IndexBenchmark.getDirectorySize(dir);
+			double latency = IndexBenchmark.measureLatency(readers[i], queries, IndexBenchmark.ROUNDS);
+			double pageLatency = report.measurePageLatency(readers[i], queries, IndexBenchmark.ROUNDS);
+			System.out.println(String.format("%-11s %9.1f %10.1f %14.1f %9.1f %8.1f   (%.0f%% of full)", profiles[i].getName(), size / 1e6,
+					getFilesSize(dir, STORED_FIELDS_EXTENSIONS) / 1e6, getFilesSize(dir, DOC_VALUES_EXTENSIONS) / 1e6,
+					latency, pageLatency, 100.0 * size / fullSize));
+			readers[i].close();
+		}
+	}
+
+	public static final int DEFAULT_SAMPLE_SIZE = 100;
+
+	// file extensions of the stored fields and the doc values of the default codec
+	public static final String[] STORED_FIELDS_EXTENSIONS = {"fdt", "fdx"};
+	public static final String[] DOC_VALUES_EXTENSIONS = {"dvd", "dvm"};
+
+	// docs of a result page and chars of TEXT shown for each of them
+	public static final int PAGE_SIZE = 10;
+	public static final int SNIPPET_LENGTH = 200;
+}
@@ -0,0 +1,113 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+/*
+ * Class to compress TEXT for the SNIPPET storage profile. Every text is deflated on its own with the best
+ * compression, the doc values column keeps it apart from the stored fields which are read for every result.
+ * The buffers are reused for all texts, a compressor is not thread-safe, use one per thread.
+ */
+public class TextCompressor
+{
+	private Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+	private BytesRefBuilder utf8 = new BytesRefBuilder();
+	private BytesRef compressed = new BytesRef(new byte[INITIAL_BUFFER_SIZE]);
+
+	/*
+	 * Method to compress text, the returned bytes are only valid until the next call
+	 */
+	public BytesRef compress(String text)
+	{
+		utf8.copyChars(text);
+
+		deflater.reset();
+		deflater.setInput(utf8.bytes(), 0, utf8.length());
+		deflater.finish();
+
+		int length = 0;
+		while (!deflater.finished())
+		{
+			if (length == compressed.bytes.length)
+			{
+				compressed.bytes = ArrayUtil.grow(compressed.bytes, length + 1);
+			}
+			length += deflater.deflate(compressed.bytes, length, compressed.bytes.length - length);
+		}
+		compressed.offset = 0;
+		compressed.length = length;
+		return compressed;
+	}
+
+	/*
+	 * Method to get the text back from its compressed bytes
+	 */
+	public static String decompress(BytesRef bytes) throws IOException
+	{
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(bytes.bytes, bytes.offset, bytes.length);
+			byte[] buffer = new byte[Math.max(INITIAL_BUFFER_SIZE, bytes.length * 4)];
+			int length = 0;
+			while (!inflater.finished())
+			{
+				if (length == buffer.length)
+				{
+					buffer = ArrayUtil.grow(buffer, length + 1);
+				}
+				int n = inflater.inflate(buffer, length, buffer.length - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					throw new IOException("Truncated compressed text");
+				}
+				length += n;
+			}
+			return new BytesRef(buffer, 0, length).utf8ToString();
+		}
+		catch (DataFormatException ex)
+		{
+			throw new IOException(ex);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/*
+	 * Method to get TEXT of a doc from an index of any storage profile, null for SEARCH_ONLY indexes
+	 */
+	public static String getText(IndexReader reader, int docId) throws IOException
+	{
+		int leaf = ReaderUtil.subIndex(docId, reader.leaves());
+		AtomicReader leafReader = reader.leaves().get(leaf).reader();
+		int segmentDoc = docId - reader.leaves().get(leaf).docBase;
+
+		BinaryDocValues compressedText = leafReader.getBinaryDocValues(COMPRESSED_TEXT_FIELD);
+		if (null != compressedText)
+		{
+			return decompress(compressedText.get(segmentDoc));
+		}
+		return leafReader.document(segmentDoc, Collections.singleton("TEXT")).get("TEXT");
+	}
+
+	// doc values column with the compressed TEXT of the SNIPPET profile
+	public static final String COMPRESSED_TEXT_FIELD = "TEXT_COMPRESSED";
+
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+}
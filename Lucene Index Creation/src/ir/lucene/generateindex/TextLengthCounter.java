@@ -0,0 +1,115 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.ByteBlockPool;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/*
+ * Class to count the exact number of tokens and unique terms of a field, the way IndexWriter
+ * counts them for norms (tokens at the same position as the previous one are not counted).
+ * The text is analyzed by the same analyzer which is used by the IndexWriter.
+ * A counter is not thread-safe, use one per thread.
+ */
+public class TextLengthCounter
+{
+	// terms of the current text, cleared and reused for every text.
+	// The first block of the pool and the term offsets are kept when it is cleared, so short texts do not allocate.
+	private ByteBlockPool pool = new ByteBlockPool(new ByteBlockPool.DirectAllocator());
+	private BytesRefHash terms = new BytesRefHash(pool, BytesRefHash.DEFAULT_CAPACITY, new ReusedBytesStartArray());
+
+	private int length = 0;
+
+	/*
+	 * Method to count the tokens and unique terms of text, returns the number of tokens
+	 */
+	public int count(Analyzer analyzer, String field, String text) throws IOException
+	{
+		terms.clear(false);
+		pool.reset(false, true);
+		terms.reinit();
+		length = 0;
+
+		TokenStream ts = analyzer.tokenStream(field, text);
+		try
+		{
+			TermToBytesRefAttribute termAtt = ts.getAttribute(TermToBytesRefAttribute.class);
+			PositionIncrementAttribute posIncAtt = ts.getAttribute(PositionIncrementAttribute.class);
+
+			ts.reset();
+			while (ts.incrementToken())
+			{
+				if (posIncAtt.getPositionIncrement() > 0)
+				{
+					length++;
+				}
+				termAtt.fillBytesRef();
+				terms.add(termAtt.getBytesRef());
+			}
+			ts.end();
+		}
+		finally
+		{
+			ts.close();
+		}
+		return length;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	public int getUniqueTermCount()
+	{
+		return terms.size();
+	}
+
+	/*
+	 * Offsets of the terms in the pool which are not dropped when the hash is cleared
+	 */
+	private static class ReusedBytesStartArray extends BytesRefHash.BytesStartArray
+	{
+		private int[] bytesStart = null;
+		private Counter bytesUsed = Counter.newCounter();
+
+		@Override
+		public int[] init()
+		{
+			if (null == bytesStart)
+			{
+				bytesStart = new int[ArrayUtil.oversize(BytesRefHash.DEFAULT_CAPACITY, RamUsageEstimator.NUM_BYTES_INT)];
+			}
+			return bytesStart;
+		}
+
+		@Override
+		public int[] grow()
+		{
+			return bytesStart = ArrayUtil.grow(bytesStart, bytesStart.length + 1);
+		}
+
+		@Override
+		public int[] clear()
+		{
+			// offsets of the last text are overwritten by the next one
+			return bytesStart;
+		}
+
+		@Override
+		public Counter bytesUsed()
+		{
+			return bytesUsed;
+		}
+	}
+}
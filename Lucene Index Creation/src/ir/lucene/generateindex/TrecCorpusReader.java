@@ -0,0 +1,229 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/*
+ * Class to read <DOC></DOC> from a trectext file through a memory mapped window of the file.
+ * Doc boundaries are found on the raw bytes. A doc is handed out as a CharSequence over the mapped bytes,
+ * which TrecDocParser can scan without decoding (the tags are ASCII), and only the data of a tag which
+ * is asked for is decoded with the charset of the file.
+ * A last doc without </DOC> is skipped.
+ */
+public class TrecCorpusReader implements Closeable
+{
+	private File file = null;
+	private Charset charset = null;
+	private RandomAccessFile raf = null;
+	private FileChannel channel = null;
+	private long fileSize = 0;
+
+	// mapped part of the file and the offset of it in the file
+	private ByteBuffer buffer = null;
+	private long windowStart = 0;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+
+	// position in the window from where to search for the next doc
+	private int pos = 0;
+	private CharSequence doc = null;
+
+	public TrecCorpusReader(File file) throws IOException
+	{
+		this(file, Charset.defaultCharset(), DEFAULT_WINDOW_SIZE);
+	}
+
+	public TrecCorpusReader(File file, Charset charset, int windowSize) throws IOException
+	{
+		this.file = file;
+		this.charset = charset;
+		this.windowSize = windowSize;
+
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		fileSize = channel.size();
+		map(0);
+	}
+
+	/*
+	 * Method to move to the next <DOC></DOC> of the file, returns false when there is none left
+	 */
+	public boolean nextDoc() throws IOException
+	{
+		while (true)
+		{
+			int open = indexOf(OPEN_DOC, pos);
+			if (open >= 0)
+			{
+				int start = open + OPEN_DOC.length;
+				int close = indexOf(CLOSE_DOC, start);
+				if (close >= 0)
+				{
+					doc = new DocView(buffer, start, close, charset);
+					pos = close + CLOSE_DOC.length;
+					return true;
+				}
+			}
+
+			int limit = buffer.limit();
+			if (windowStart + limit >= fileSize)
+			{
+				// end of file, a truncated doc is ignored
+				doc = null;
+				return false;
+			}
+
+			// map the rest of the file from the start of the incomplete doc,
+			// or from where a partial <DOC> tag may begin
+			long next = windowStart + ((open >= 0) ? open : Math.max(pos, limit - OPEN_DOC.length + 1));
+			if (next == windowStart)
+			{
+				throw new IOException(file + ": doc at offset " + windowStart + " is larger than " + windowSize + " bytes");
+			}
+			map(next);
+		}
+	}
+
+	/*
+	 * Method to get the content between <DOC> and </DOC> of the current doc
+	 */
+	public CharSequence getDoc()
+	{
+		return doc;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+		raf.close();
+	}
+
+	private void map(long start) throws IOException
+	{
+		windowStart = start;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+		pos = 0;
+	}
+
+	private int indexOf(byte[] pattern, int from)
+	{
+		int last = buffer.limit() - pattern.length;
+		for (int i = from; i <= last; i++)
+		{
+			if (buffer.get(i) != pattern[0])
+			{
+				continue;
+			}
+			int n = 1;
+			while (n < pattern.length && buffer.get(i + n) == pattern[n])
+			{
+				n++;
+			}
+			if (n == pattern.length)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Method to get a range of a doc as a String, a doc of this reader is decoded without creating a view
+	 * of the range or an intermediate copy of the bytes
+	 */
+	public static String substring(CharSequence doc, int start, int end)
+	{
+		if (doc instanceof DocView)
+		{
+			return ((DocView) doc).substring(start, end);
+		}
+		return doc.subSequence(start, end).toString();
+	}
+
+	/*
+	 * View of a range of the mapped bytes, every byte is one char until it is converted to a String.
+	 * Views only use absolute reads of the buffer, so they can be handed to other threads.
+	 */
+	private static class DocView implements CharSequence
+	{
+		private ByteBuffer buffer = null;
+		private int start = 0;
+		private int end = 0;
+		private Charset charset = null;
+
+		public DocView(ByteBuffer buffer, int start, int end, Charset charset)
+		{
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.charset = charset;
+		}
+
+		@Override
+		public int length()
+		{
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return (char) (buffer.get(start + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to)
+		{
+			return new DocView(buffer, start + from, start + to, charset);
+		}
+
+		@Override
+		public String toString()
+		{
+			return substring(0, length());
+		}
+
+		/*
+		 * Method to decode a range of the view, the bytes are copied into a buffer of the thread which is reused
+		 */
+		public String substring(int from, int to)
+		{
+			int length = to - from;
+			byte[] bytes = scratch.get();
+			if (bytes.length < length)
+			{
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+				scratch.set(bytes);
+			}
+			for (int i = 0; i < length; i++)
+			{
+				bytes[i] = buffer.get(start + from + i);
+			}
+			return new String(bytes, 0, length, charset);
+		}
+	}
+
+	// buffer of every thread to copy bytes before they are decoded
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[1 << 12];
+		}
+	};
+
+	// read the file in windows of 1GB
+	public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+	private static final byte[] OPEN_DOC = "<DOC>".getBytes();
+	private static final byte[] CLOSE_DOC = "</DOC>".getBytes();
+}
@@ -0,0 +1,234 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+package ir.lucene.generateindex;
+
+/*
+ * Class to extract the data of several SGML tags of a trectext document in one pass.
+ * It gives the same result as matching <TAG>(.+?)</TAG> (case insensitive) for every tag:
+ * the data of every occurrence is trimmed and occurrences are joined with a space.
+ * Only the offsets of the tags are recorded while scanning, the data is copied once when it is asked for.
+ * A parser is not thread-safe, use one per thread.
+ */
+public class TrecDocParser
+{
+	private String[] tags = null;
+	// upper case tag names used for case insensitive matching
+	private char[][] names = null;
+
+	// offsets of the data of every occurrence of each tag
+	private int[][] starts = null;
+	private int[][] ends = null;
+	private int[] counts = null;
+	// offset of data of the tag which is currently open, -1 if it is not open
+	private int[] openAt = null;
+
+	private CharSequence data = null;
+
+	// buffer to join the occurrences of a tag, reused for every tag
+	private StringBuilder joined = new StringBuilder();
+
+	public TrecDocParser(String... tags)
+	{
+		this.tags = tags;
+		names = new char[tags.length][];
+		starts = new int[tags.length][];
+		ends = new int[tags.length][];
+		counts = new int[tags.length];
+		openAt = new int[tags.length];
+
+		for (int t = 0; t < tags.length; t++)
+		{
+			names[t] = tags[t].toUpperCase().toCharArray();
+			starts[t] = new int[1];
+			ends[t] = new int[1];
+		}
+	}
+
+	public String[] getTags()
+	{
+		return tags;
+	}
+
+	/*
+	 * Method to get the position of tag in the list of tags of this parser, -1 if it is not parsed
+	 */
+	public int getTagIndex(String tag)
+	{
+		for (int t = 0; t < tags.length; t++)
+		{
+			if (tags[t].equalsIgnoreCase(tag))
+			{
+				return t;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Method to find the data of all tags in the document with a single scan
+	 */
+	public void parse(CharSequence data)
+	{
+		this.data = data;
+		for (int t = 0; t < tags.length; t++)
+		{
+			counts[t] = 0;
+			openAt[t] = -1;
+		}
+
+		int length = data.length();
+		int i = 0;
+		while (i < length)
+		{
+			if (data.charAt(i) != '<')
+			{
+				i++;
+				continue;
+			}
+
+			boolean closing = (i + 1 < length) && data.charAt(i + 1) == '/';
+			int nameStart = closing ? i + 2 : i + 1;
+			int t = matchTag(data, nameStart, length);
+
+			if (t < 0)
+			{
+				i++;
+			}
+			else if (!closing && openAt[t] < 0)
+			{
+				// data starts right after '>'
+				openAt[t] = nameStart + names[t].length + 1;
+				i = openAt[t];
+			}
+			else if (closing && openAt[t] >= 0 && openAt[t] < i)
+			{
+				addOccurrence(t, openAt[t], i);
+				openAt[t] = -1;
+				i = nameStart + names[t].length + 1;
+			}
+			else
+			{
+				// an open tag inside its own data, or a close tag with nothing to close, is part of the data
+				i++;
+			}
+		}
+	}
+
+	/*
+	 * Method to get the data of a tag of the last parsed document
+	 */
+	public String getTagData(String tag)
+	{
+		int t = getTagIndex(tag);
+		return (t < 0) ? "" : getTagData(t);
+	}
+
+	public String getTagData(int t)
+	{
+		int count = counts[t];
+		if (count == 0)
+		{
+			return "";
+		}
+		if (count == 1)
+		{
+			int start = trimStart(starts[t][0], ends[t][0]);
+			int end = trimEnd(start, ends[t][0]);
+			return TrecCorpusReader.substring(data, start, end);
+		}
+
+		StringBuilder sb = joined;
+		sb.setLength(0);
+		for (int n = 0; n < count; n++)
+		{
+			int start = trimStart(starts[t][n], ends[t][n]);
+			int end = trimEnd(start, ends[t][n]);
+			if (n > 0)
+			{
+				sb.append(' ');
+			}
+			// every occurrence is decoded with the charset of the file, as a single one is
+			sb.append(TrecCorpusReader.substring(data, start, end));
+		}
+
+		// leading and trailing separators of empty occurrences
+		int start = 0;
+		int end = sb.length();
+		while (start < end && sb.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		while (end > start && sb.charAt(end - 1) <= ' ')
+		{
+			end--;
+		}
+		return sb.substring(start, end);
+	}
+
+	/*
+	 * Method to check if "NAME>" at offset is one of the tags
+	 */
+	private int matchTag(CharSequence data, int offset, int length)
+	{
+		for (int t = 0; t < names.length; t++)
+		{
+			char[] name = names[t];
+			int end = offset + name.length;
+			if (end >= length || data.charAt(end) != '>')
+			{
+				continue;
+			}
+
+			int n = 0;
+			while (n < name.length && toUpper(data.charAt(offset + n)) == name[n])
+			{
+				n++;
+			}
+			if (n == name.length)
+			{
+				return t;
+			}
+		}
+		return -1;
+	}
+
+	private void addOccurrence(int t, int start, int end)
+	{
+		if (counts[t] == starts[t].length)
+		{
+			int[] newStarts = new int[counts[t] * 2];
+			int[] newEnds = new int[counts[t] * 2];
+			System.arraycopy(starts[t], 0, newStarts, 0, counts[t]);
+			System.arraycopy(ends[t], 0, newEnds, 0, counts[t]);
+			starts[t] = newStarts;
+			ends[t] = newEnds;
+		}
+		starts[t][counts[t]] = start;
+		ends[t][counts[t]] = end;
+		counts[t]++;
+	}
+
+	private int trimStart(int start, int end)
+	{
+		while (start < end && data.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		return start;
+	}
+
+	private int trimEnd(int start, int end)
+	{
+		while (end > start && data.charAt(end - 1) <= ' ')
+		{
+			end--;
+		}
+		return end;
+	}
+
+	private static char toUpper(char c)
+	{
+		return (c >= 'a' && c <= 'z') ? (char) (c - ('a' - 'A')) : c;
+	}
+}
@@ -13,8 +13,6 @@ import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -27,7 +25,6 @@ import org.apache.lucene.search.similarities.DefaultSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.FSDirectory;
 
 public class CompareAlgorithms 
 {
@@ -38,6 +35,9 @@ public class CompareAlgorithms
 	
 	private String[] runId = null;
 	
+	// results of queries which were already run by any of the algorithms, null to search every query
+	private QueryResultCache resultCache = null;
+	
 	public void closeBuffers() throws IOException
 	{
 		for (SearchAlgorithm searchAlgorithm: algos)
@@ -73,23 +73,58 @@ public class CompareAlgorithms
 	}
 	
 	public void initSearchAlgos() throws IOException
+	{
+		initSearchAlgos(ShardedIndex.open(INPUT_INDEX_FILE_NAME));
+	}
+	
+	/*
+	 * method to search all algorithms on the same reader, e.g. a near-real-time snapshot of an index which is still written
+	 */
+	public void initSearchAlgos(IndexReader reader)
 	{
 		SearchAlgorithm bm25 = new SearchAlgorithm(); // bm25
-		bm25.setIndexSearcher(INPUT_INDEX_FILE_NAME, new BM25Similarity());
+		bm25.setIndexSearcher(reader, new BM25Similarity());
 		algos.add(bm25);
 		
 		SearchAlgorithm vsm = new SearchAlgorithm(); // vector space model
-		vsm.setIndexSearcher(INPUT_INDEX_FILE_NAME, new DefaultSimilarity());
+		vsm.setIndexSearcher(reader, new DefaultSimilarity());
 		algos.add(vsm);
 
 		SearchAlgorithm lmds = new SearchAlgorithm();
-		lmds.setIndexSearcher(INPUT_INDEX_FILE_NAME, new LMDirichletSimilarity());
+		lmds.setIndexSearcher(reader, new LMDirichletSimilarity());
 		algos.add(lmds);
 
 		SearchAlgorithm lmjms = new SearchAlgorithm();
-		lmjms.setIndexSearcher(INPUT_INDEX_FILE_NAME, new LMJelinekMercerSimilarity((float) 0.7));
+		lmjms.setIndexSearcher(reader, new LMJelinekMercerSimilarity((float) 0.7));
 		algos.add(lmjms);
 	}
+	
+	/*
+	 * method to keep the results of the queries, so that a query which is run again on the same index is not searched again
+	 */
+	public void setResultCache(QueryResultCache resultCache)
+	{
+		this.resultCache = resultCache;
+	}
+	
+	/*
+	 * method to get the reader which is searched, null before initSearchAlgos
+	 */
+	public IndexReader getReader()
+	{
+		return algos.isEmpty() ? null : algos.get(0).indexReader;
+	}
+	
+	/*
+	 * method to move all algorithms to a newer snapshot of the index between two queries
+	 */
+	public void setReader(IndexReader reader)
+	{
+		for (SearchAlgorithm searchAlgorithm: algos)
+		{
+			searchAlgorithm.setIndexSearcher(reader, searchAlgorithm.searcher.getSimilarity());
+		}
+	}
 
 	/*
 	 * method to process query terms and calculate relevance score for input query terms
@@ -115,6 +150,7 @@ public class CompareAlgorithms
 	public static final String SEARACH_QUERY_OUT_FILE_DIR= "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\searchoutput\\";
 	public static final String INPUT_QUERY_FILE_NAME = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\topics.51-100";
 	public static final String INPUT_INDEX_FILE_NAME = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\index\\default";
+	public static final int RESULT_SIZE = 1000;
 
 	private class SearchAlgorithm
 	{
@@ -122,9 +158,9 @@ public class CompareAlgorithms
 		private BufferedWriter bw = null;
 		private IndexReader indexReader = null;
 
-		public void setIndexSearcher(String queryFileName, Similarity similarity) throws IOException
+		public void setIndexSearcher(IndexReader reader, Similarity similarity)
 		{
-			indexReader =  DirectoryReader.open(FSDirectory.open(new File(queryFileName)));
+			indexReader = reader;
 			searcher = new IndexSearcher(indexReader);
 			searcher.setSimilarity(similarity);
 		}
@@ -141,23 +177,56 @@ public class CompareAlgorithms
 			bw.close();
 		}
 		
-		public void recordResults(TopScoreDocCollector collector, int trecNumber, String q, String runId) throws IOException
+		/*
+		 * method to write the ranked results, the scores are the float scores of Lucene
+		 */
+		public void recordResults(int[] docIds, double[] scores, int trecNumber, String q, String runId) throws IOException
 		{
-			ScoreDoc[] docs = collector.topDocs().scoreDocs;
+			String[] docnos = DocNoLookup.lookup(searcher.getIndexReader(), docIds, "DOCNO");
 			
-			for (int i = 0; i < docs.length; i++) 
+			for (int i = 0; i < docIds.length; i++) 
 			{
-				Document doc = searcher.doc(docs[i].doc);
-				bw.write(trecNumber+"		"+q+"		"+doc.get("DOCNO") +"		"+ (i+1) +"		"+docs[i].score+"		"+runId);
+				bw.write(trecNumber+"		"+q+"		"+docnos[i] +"		"+ (i+1) +"		"+(float) scores[i]+"		"+runId);
 				bw.newLine();
 			}
 		}
 		
 		public void searchQuery(Query query, int trecNumber, String q, String runId) throws IOException
 		{
-			TopScoreDocCollector collector = TopScoreDocCollector.create(1000, true);
-			searcher.search(query, collector);
-			recordResults(collector, trecNumber, q, runId);
+			// the similarity with its parameters is part of the key, so the algorithms share the cache
+			String similarity = searcher.getSimilarity().toString();
+			QueryResultCache.Result cached = (null != resultCache) ? resultCache.get(indexReader, query.toString(), similarity, RESULT_SIZE) : null;
+			
+			int[] docIds = null;
+			double[] scores = null;
+			if (null != cached)
+			{
+				docIds = new int[cached.size()];
+				scores = new double[cached.size()];
+				for (int i = 0; i < docIds.length; i++)
+				{
+					docIds[i] = cached.getDocId(i);
+					scores[i] = cached.getScore(i);
+				}
+			}
+			else
+			{
+				TopScoreDocCollector collector = TopScoreDocCollector.create(RESULT_SIZE, true);
+				searcher.search(query, collector);
+				ScoreDoc[] docs = collector.topDocs().scoreDocs;
+				docIds = new int[docs.length];
+				scores = new double[docs.length];
+				for (int i = 0; i < docs.length; i++)
+				{
+					docIds[i] = docs[i].doc;
+					scores[i] = docs[i].score;
+				}
+				if (null != resultCache)
+				{
+					resultCache.put(indexReader, query.toString(), similarity, RESULT_SIZE, docIds.clone(), scores.clone());
+				}
+			}
+			recordResults(docIds, scores, trecNumber, q, runId);
 		}
 	}
 }
@@ -169,10 +238,12 @@ class ProcessQueryFiles
 {
 	private BufferedReader br = null; // read input index
 	private CompareAlgorithms compareAlgos = null;
+	private QueryResultCache resultCache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES);
 	
 	public ProcessQueryFiles()
 	{
 		compareAlgos = new CompareAlgorithms();
+		compareAlgos.setResultCache(resultCache);
 	}
 	
 	/*
@@ -287,14 +358,21 @@ class ProcessQueryFiles
 		compareAlgos.initSearchAlgos();
 		String[] searchTags = {"title", "desc"};
 		
+		// results of the earlier runs on the same index
+		File cacheFile = QueryResultCache.getCacheFile(CompareAlgorithms.INPUT_INDEX_FILE_NAME, RESULT_CACHE_NAME);
+		resultCache.load(cacheFile, compareAlgos.getReader());
+		
 		for (String searchTag: searchTags)
 		{
 			processQueries(filename, searchTag);
 			closeBuffers();
 		}
+		resultCache.save(cacheFile);
+		System.out.println(resultCache.getStats());
 	}	
 
 	public static final String SEARACH_SHORT_QUERY_FILE = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\searchoutput\\easySearchShortQuery.txt";
 	public static final String SEARACH_LONG_QUERY_FILE = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\searchoutput\\easySearchLongQuery.txt";
+	public static final String RESULT_CACHE_NAME = "compareAlgorithms";
 
 }
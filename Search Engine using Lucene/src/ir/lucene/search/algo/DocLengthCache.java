@@ -0,0 +1,217 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.store.FSDirectory;
+
+/*
+ * Class to keep the normalized length of every document in sidecar files next to the index, one file per segment.
+ * Segments never change once they are written, so the lengths of a segment are decoded from its length column
+ * (or norms) only the first time the segment is seen; after that its file is memory mapped and copied in one bulk read.
+ * The lengths are copied into one float[] of maxDoc, because the scorers index them by doc id across segments.
+ * A file is named after the directory, name, size and creation time of its segment, so a rebuilt index which reuses
+ * segment names does not pick up old files. Files of segments which are gone (e.g. merged away) are deleted.
+ */
+public class DocLengthCache
+{
+	private File cacheDir = null;
+
+	// number of segments read from files and decoded from the index by the last load
+	private int segmentsMapped = 0;
+	private int segmentsDecoded = 0;
+
+	public DocLengthCache(File cacheDir)
+	{
+		this.cacheDir = cacheDir;
+	}
+
+	/*
+	 * Method to get the normalized length of every document of reader, indexed by doc id
+	 */
+	public float[] load(IndexReader reader) throws IOException
+	{
+		float[] docLen = new float[reader.maxDoc()];
+		Set<String> usedFiles = new HashSet<String>();
+		segmentsMapped = 0;
+		segmentsDecoded = 0;
+		cacheDir.mkdirs();
+
+		for (AtomicReaderContext leafContext: reader.leaves())
+		{
+			AtomicReader leafReader = leafContext.reader();
+			String fileName = getFileName(leafReader);
+			File file = (null != fileName) ? new File(cacheDir, fileName) : null;
+
+			if (null != file && file.isFile() && readSegment(file, docLen, leafContext.docBase, leafReader.maxDoc()))
+			{
+				segmentsMapped++;
+			}
+			else
+			{
+				decodeSegment(leafReader, docLen, leafContext.docBase);
+				segmentsDecoded++;
+				if (null != file)
+				{
+					writeSegment(file, docLen, leafContext.docBase, leafReader.maxDoc());
+				}
+			}
+			if (null != fileName)
+			{
+				usedFiles.add(fileName);
+			}
+		}
+
+		removeUnused(usedFiles);
+		return docLen;
+	}
+
+	public int getSegmentsMapped()
+	{
+		return segmentsMapped;
+	}
+
+	public int getSegmentsDecoded()
+	{
+		return segmentsDecoded;
+	}
+
+	/*
+	 * Method to decode the normalized lengths of a segment from its exact length column, or from the lossy norms of
+	 * indexes without it. Docs of a segment without either (e.g. only COLLAPSE stubs, which have no TEXT) get 1.
+	 */
+	public static void decodeSegment(AtomicReader leafReader, float[] docLen, int docBase) throws IOException
+	{
+		DefaultSimilarity dsimi = new DefaultSimilarity();
+		NumericDocValues lengths = leafReader.getNumericDocValues(SearchTRECtopics.TEXT_LENGTH_FIELD);
+		NumericDocValues norms = leafReader.getNormValues("TEXT");
+
+		for (int doc = 0; doc < leafReader.maxDoc(); doc++)
+		{
+			if (null != lengths)
+			{
+				docLen[docBase + doc] = SearchTRECtopics.getNormDocLen(lengths.get(doc));
+			}
+			else
+			{
+				docLen[docBase + doc] = (null != norms) ? dsimi.decodeNormValue(norms.get(doc)) : 1f;
+			}
+		}
+	}
+
+	/*
+	 * Method to get the name of the sidecar file of a segment, null for segments which are not in a directory on disk
+	 */
+	private String getFileName(AtomicReader leafReader)
+	{
+		if (!(leafReader instanceof SegmentReader) || !(((SegmentReader) leafReader).directory() instanceof FSDirectory))
+		{
+			return null;
+		}
+
+		SegmentReader segmentReader = (SegmentReader) leafReader;
+		SegmentInfo info = segmentReader.getSegmentInfo().info;
+		String directory = ((FSDirectory) segmentReader.directory()).getDirectory().getName();
+		String timestamp = info.getDiagnostics().get("timestamp");
+		return directory + "-" + info.name + "-" + info.getDocCount() + "-" + ((null != timestamp) ? timestamp : "0") + FILE_EXTENSION;
+	}
+
+	/*
+	 * Method to copy the lengths of a segment from its memory mapped file, returns false if the file does not fit
+	 */
+	private boolean readSegment(File file, float[] docLen, int docBase, int maxDoc) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			if (channel.size() != HEADER_LENGTH + 4L * maxDoc)
+			{
+				return false;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != maxDoc)
+			{
+				return false;
+			}
+			buffer.asFloatBuffer().get(docLen, docBase, maxDoc);
+			return true;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/*
+	 * Method to write the lengths of a segment to its file. The file is written under a temporary name and renamed,
+	 * so that a search which runs at the same time never maps a file which is not complete.
+	 */
+	private void writeSegment(File file, float[] docLen, int docBase, int maxDoc) throws IOException
+	{
+		File tempFile = new File(cacheDir, file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tempFile);
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + 4 * maxDoc);
+			buffer.putInt(MAGIC);
+			buffer.putInt(maxDoc);
+			buffer.asFloatBuffer().put(docLen, docBase, maxDoc);
+			out.write(buffer.array());
+		}
+		finally
+		{
+			out.close();
+		}
+		if (!tempFile.renameTo(file))
+		{
+			// another search wrote the same file first, or it is still mapped (Windows)
+			tempFile.delete();
+		}
+	}
+
+	/*
+	 * Method to delete the files of segments which are no longer in the index
+	 */
+	private void removeUnused(Set<String> usedFiles)
+	{
+		File[] files = cacheDir.listFiles();
+		if (null == files)
+		{
+			return;
+		}
+		for (File file: files)
+		{
+			if (file.getName().endsWith(FILE_EXTENSION) && !usedFiles.contains(file.getName()))
+			{
+				// a file which is still mapped is not deleted on Windows, it is tried again by the next load
+				file.delete();
+			}
+		}
+	}
+
+	// directory of the cache next to an index directory
+	public static final String CACHE_DIR_SUFFIX = "_doclen";
+	public static final String FILE_EXTENSION = ".len";
+
+	private static final int MAGIC = 0x444c454e;
+	private static final int HEADER_LENGTH = 8;
+}
@@ -0,0 +1,90 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+
+/*
+ * Class to get DOCNO (or HEAD) of result docs from the doc values column written by GenerateIndex,
+ * without loading and decompressing the stored doc. Docs are looked up in docID order, segment by segment.
+ * Segments of indexes built without the column fall back to the stored field.
+ */
+public class DocNoLookup
+{
+	/*
+	 * Method to get the value of field for every doc id, in the order of docIds
+	 */
+	public static String[] lookup(IndexReader reader, int[] docIds, String field) throws IOException
+	{
+		String[] values = new String[docIds.length];
+		if (docIds.length == 0)
+		{
+			return values;
+		}
+
+		// positions of the doc ids, sorted by doc id
+		long[] sorted = new long[docIds.length];
+		for (int i = 0; i < docIds.length; i++)
+		{
+			sorted[i] = ((long) docIds[i] << 32) | i;
+		}
+		Arrays.sort(sorted);
+
+		Set<String> fieldsToLoad = Collections.singleton(field);
+		List<AtomicReaderContext> leafContexts = reader.leaves();
+		int leaf = -1;
+		int leafEnd = 0;
+		BinaryDocValues docValues = null;
+		AtomicReader leafReader = null;
+
+		for (long entry: sorted)
+		{
+			int docId = (int) (entry >>> 32);
+			int pos = (int) entry;
+
+			// move to the segment of the doc
+			while (docId >= leafEnd)
+			{
+				leaf++;
+				leafReader = leafContexts.get(leaf).reader();
+				leafEnd = leafContexts.get(leaf).docBase + leafReader.maxDoc();
+				docValues = getDocValues(leafReader, field);
+			}
+
+			int segmentDoc = docId - leafContexts.get(leaf).docBase;
+			if (null != docValues)
+			{
+				values[pos] = docValues.get(segmentDoc).utf8ToString();
+			}
+			else
+			{
+				values[pos] = leafReader.document(segmentDoc, fieldsToLoad).get(field);
+			}
+		}
+		return values;
+	}
+
+	/*
+	 * Method to get the sorted or binary doc values of field in a segment, null if the segment has none
+	 */
+	private static BinaryDocValues getDocValues(AtomicReader leafReader, String field) throws IOException
+	{
+		if (null == leafReader.getFieldInfos().fieldInfo(field) || !leafReader.getFieldInfos().fieldInfo(field).hasDocValues())
+		{
+			return null;
+		}
+		BinaryDocValues sorted = leafReader.getSortedDocValues(field);
+		return (null != sorted) ? sorted : leafReader.getBinaryDocValues(field);
+	}
+}
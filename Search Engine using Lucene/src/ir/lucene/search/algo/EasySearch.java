@@ -4,131 +4,306 @@
 
 package ir.lucene.search.algo;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Bits;
 
 public class EasySearch 
 {
-	// map to store term and all the documents which contain it with frequency
-	private Map<Term, Map<Integer, Integer>> termFreqMap = new HashMap<Term, Map<Integer, Integer>>();
-	// map to store term and its IDF
-	private Map<Term, Double> termIDF = new HashMap<Term, Double>();
+	// IDF of the query terms, in the order of the query
+	private double[] termIDF = null;
 	
 	private IndexReader reader = null;
+	
+	// threads which score the segments, no pool for one thread
+	private ForkJoinPool pool = null;
+	
+	// the analyzer and parser are made once for all queries
+	private Analyzer analyzer = new StandardAnalyzer();
+	private QueryParser queryparser = new QueryParser("TEXT", analyzer);
+	
+	/*
+	 * Interface to receive the score of every matching document as soon as it is calculated, in doc id order.
+	 * With more than one thread it is called from several threads at the same time and has to be thread safe.
+	 */
+	public interface ScoreSink
+	{
+		public void accept(int docId, double score) throws IOException;
+	}
+	
+	/*
+	 * Class to write every score as a line, e.g. to a file or to stdout. The lines of different threads are not mixed.
+	 */
+	public static class WriterSink implements ScoreSink
+	{
+		private Writer out = null;
+		
+		public WriterSink(Writer out)
+		{
+			this.out = out;
+		}
+		
+		@Override
+		public synchronized void accept(int docId, double score) throws IOException
+		{
+			out.write("DocId = "+ docId+ "  Score = "+ score);
+			out.write(LINE_SEPARATOR);
+		}
+	}
+	
+	/*
+	 * method to score the segments of the index with several threads, 1 to use only the calling thread
+	 */
+	public void setThreads(int threads)
+	{
+		pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+	}
+	
+	/*
+	 * method to search a given point-in-time view of the index instead of opening the index directory
+	 */
+	public void setReader(IndexReader reader)
+	{
+		this.reader = reader;
+	}
 		
 	/*
-	 * method to calculate IDF score of all terms in the query 
+	 * method to calculate IDF score of all terms in the query. The postings are not kept, they are read again
+	 * segment by segment while scoring.
 	 */
 	public void calculateTermIDF(Set<Term> queryterms) throws IOException
 	{
 		int totalDoc = reader.maxDoc(); // total number of documents in the corpus
+		Bits liveDocs = MultiFields.getLiveDocs(reader);
+		termIDF = new double[queryterms.size()];
 		
-		// calculate idf and term frequency in each document
+		int i = 0;
 		for (Term t: queryterms)
 		{
-			Map<Integer, Integer> termFreq = new HashMap<Integer, Integer>();
-			
-			// get the term frequency of "new" within each document containing it for <field>TEXT</field>
-			DocsEnum de = MultiFields.getTermDocsEnum(reader, MultiFields.getLiveDocs(reader), "TEXT", new BytesRef(t.text()));
-			int doc = 0;
-			int termDocFreq = 0;
-			while ((doc = de.nextDoc()) != DocsEnum.NO_MORE_DOCS)
+			int termDocFreq = reader.docFreq(t);
+			if (null != liveDocs && termDocFreq > 0)
 			{
-				termFreq.put(de.docID(), de.freq());
-				termDocFreq++;
+				// docFreq also counts deleted documents, count the live ones
+				termDocFreq = 0;
+				DocsEnum de = MultiFields.getTermDocsEnum(reader, liveDocs, "TEXT", t.bytes(), DocsEnum.FLAG_NONE);
+				while ((null != de) && de.nextDoc() != DocsEnum.NO_MORE_DOCS)
+				{
+					termDocFreq++;
+				}
 			}
 			
-			termFreqMap.put(t, termFreq);
-			
 			double idf = 0;
 			if (termDocFreq > 0)
 			{
 				idf = Math.log(1+ (totalDoc/termDocFreq));
 			}
-			termIDF.put(t, idf);
+			termIDF[i++] = idf;
 		}
 	}
 	
 	/*
-	 * Method to calculate TF-IDF score for each document in segment of the index
+	 * Method to calculate TF-IDF score of the documents which contain a query term, segment by segment.
+	 * The postings of all terms are walked together and every score goes to the sink as soon as it is calculated,
+	 * so nothing is kept per document. With more than one thread the segments are scored in parallel: the scores
+	 * of a segment still come in doc id order, but the scores of different segments are interleaved.
 	 */
-	public void calculateTFIDF(Set<Term> queryterms) throws IOException
+	public void calculateTFIDF(Set<Term> queryterms, ScoreSink sink) throws IOException
 	{
-		List<DocScore> finalScore = new ArrayList<DocScore>();
+		Term[] terms = queryterms.toArray(new Term[queryterms.size()]);
+		
+		if (null == pool || reader.leaves().size() < 2)
+		{
+			for (AtomicReaderContext leafContext: reader.leaves())
+			{
+				scoreSegment(leafContext, terms, sink);
+			}
+			return;
+		}
+		
+		List<SegmentTask> tasks = new ArrayList<SegmentTask>();
+		for (AtomicReaderContext leafContext: reader.leaves())
+		{
+			tasks.add(new SegmentTask(leafContext, terms, sink));
+		}
+		pool.invoke(new AllSegments(tasks));
+		for (SegmentTask task: tasks)
+		{
+			if (null != task.failure)
+			{
+				throw task.failure;
+			}
+		}
+	}
+	
+	/*
+	 * Method to calculate TF-IDF score of the documents of one segment which contain a query term
+	 */
+	private void scoreSegment(AtomicReaderContext leafContext, Term[] terms, ScoreSink sink) throws IOException
+	{
+		AtomicReader leafReader = leafContext.reader();
+		Terms fieldTerms = leafReader.terms("TEXT");
+		if (null == fieldTerms)
+		{
+			return;
+		}
 		// use DefaultSimilarity.decodeNormValue(..) to normalize document length
 		DefaultSimilarity dsimi = new DefaultSimilarity();
 		
-		// get the segment of the index
-		List<AtomicReaderContext> leafContexts = reader.getContext().reader().leaves();
-
-		for (AtomicReaderContext leafContext: leafContexts)
+		// postings cursor of each term in the segment, and its current doc
+		DocsEnum[] cursors = new DocsEnum[terms.length];
+		int[] docs = new int[terms.length];
+		
+		TermsEnum termsEnum = fieldTerms.iterator(null);
+		for (int i = 0; i < terms.length; i++)
+		{
+			docs[i] = DocsEnum.NO_MORE_DOCS;
+			if (termsEnum.seekExact(terms[i].bytes()))
+			{
+				cursors[i] = termsEnum.docs(leafReader.getLiveDocs(), null, DocsEnum.FLAG_FREQS);
+				docs[i] = cursors[i].nextDoc();
+			}
+		}
+		
+		// exact length column of the segment, or the lossy norms of indexes without it
+		NumericDocValues lengths = leafReader.getNumericDocValues(SearchTRECtopics.TEXT_LENGTH_FIELD);
+		NumericDocValues norms = leafReader.getNormValues("TEXT");
+		
+		while (true)
 		{
-			int startDocNo = leafContext.docBase;
-			int numberOfDoc = leafContext.reader().maxDoc();
-			int maxSegDoc = startDocNo + numberOfDoc;
+			// next document of any term
+			int doc = DocsEnum.NO_MORE_DOCS;
+			for (int i = 0; i < terms.length; i++)
+			{
+				doc = Math.min(doc, docs[i]);
+			}
+			if (doc == DocsEnum.NO_MORE_DOCS)
+			{
+				break;
+			}
 			
-			for (int docId = startDocNo; docId < maxSegDoc; docId++)
+			// get normalized length of the document
+			float normDocLen = (null != lengths) ? SearchTRECtopics.getNormDocLen(lengths.get(doc)) : dsimi.decodeNormValue(norms.get(doc));
+			double tf_idf = 0;
+			for (int i = 0; i < terms.length; i++)
 			{
-				// get normalized length for each document in the segment
-				float normDocLen = dsimi.decodeNormValue(leafContext.reader().getNormValues("TEXT").get(docId - startDocNo));
-				//System.out.println("Normalized length for doc ("+docId+") is "+ normDocLen);
-				double tf_idf = 0;
-				for (Term t: queryterms)
+				if (docs[i] == doc)
 				{
-					if (termFreqMap.get(t).containsKey(docId))
-					{
-						tf_idf += (termFreqMap.get(t).get(docId)/normDocLen) * termIDF.get(t);
-					}
+					tf_idf += (cursors[i].freq()/normDocLen) * termIDF[i];
+					docs[i] = cursors[i].nextDoc();
 				}
-				finalScore.add(new DocScore(docId, tf_idf));
 			}
+			sink.accept(leafContext.docBase + doc, tf_idf);
 		}
-		System.out.println("All results are: ");
+	}
+	
+	/*
+	 * Task which scores the segments of one query in the pool and waits for all of them
+	 */
+	private class AllSegments extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private List<SegmentTask> tasks = null;
+		
+		public AllSegments(List<SegmentTask> tasks)
+		{
+			this.tasks = tasks;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			invokeAll(tasks);
+		}
+	}
+	
+	/*
+	 * Task to score the documents of one segment
+	 */
+	private class SegmentTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private AtomicReaderContext leafContext = null;
+		private Term[] terms = null;
+		private ScoreSink sink = null;
+		private IOException failure = null;
 		
-		for(DocScore ds: finalScore)
+		public SegmentTask(AtomicReaderContext leafContext, Term[] terms, ScoreSink sink)
 		{
-			System.out.println("DocId = "+ ds.getDocId()+ "  Score = "+ ds.getScore());
+			this.leafContext = leafContext;
+			this.terms = terms;
+			this.sink = sink;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			try
+			{
+				scoreSegment(leafContext, terms, sink);
+			}
+			catch (IOException ex)
+			{
+				failure = ex;
+			}
 		}
 	}
 	
 	/*
-	 * driver method to process query terms and calculate relevance score for input query terms
+	 * driver method to process query terms and calculate relevance score for input query terms, the scores go to sink
 	*/
-	public void getRelevanceScore(String queryString) throws ParseException, IOException
+	public void getRelevanceScore(String queryString, ScoreSink sink) throws ParseException, IOException
 	{
 		// get the pre-processed query terms
-		Analyzer analyzer = new StandardAnalyzer();
-		QueryParser queryparser = new QueryParser("TEXT", analyzer);
 		Query query = queryparser.parse(queryString);
 		Set<Term> queryterms = new LinkedHashSet<Term>();
 		query.extractTerms(queryterms);
 				
-		reader = DirectoryReader.open(FSDirectory.open(new File("E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\index\\default")));
+		if (null == reader)
+		{
+			reader = ShardedIndex.open(SearchTRECtopics.INPUT_INDEX_DIR);
+		}
 		
 		calculateTermIDF(queryterms);
 		
-		calculateTFIDF(queryterms);
+		calculateTFIDF(queryterms, sink);
+	}
+	
+	/*
+	 * driver method to print the relevance score of all documents which match the input query terms
+	*/
+	public void getRelevanceScore(String queryString) throws ParseException, IOException
+	{
+		System.out.println("All results are: ");
+		
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		getRelevanceScore(queryString, new WriterSink(out));
+		out.flush();
 	}
 	
 	/* main method to get relevance score of all documents for term "new"
@@ -139,38 +314,5 @@ public class EasySearch
 		es.getRelevanceScore("new");
 	}
 	
-	/*
-	 * Class for storing document id and corresponding score in the final result
-	 * */
-	private class DocScore
-	{
-		private int docId;
-		private double score;
-		
-		public DocScore(int docId, double score)
-		{
-			this.docId = docId;
-			this.score = score;
-		}
-		
-		public int getDocId() 
-		{
-			return docId;
-		}
-		
-		public void setDocId(int docId) 
-		{
-			this.docId = docId;
-		}
-		
-		public double getScore() 
-		{
-			return score;
-		}
-		
-		public void setScore(double score) 
-		{
-			this.score = score;
-		}
-	}
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 }
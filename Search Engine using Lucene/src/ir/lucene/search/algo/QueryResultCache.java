@@ -0,0 +1,456 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+
+/*
+ * Class to keep the top results of queries which were already run, so that a topic file or query log which is
+ * replayed against the same index is not scored again. A result is found by the analyzed query, the similarity,
+ * k and the version of the reader; the version is made from the segments of the reader and their deletes, so
+ * a reopened reader which sees changes never gets the results of an older one, while the same unchanged index
+ * opened by a later run does. The least recently used results are removed when the cache is larger than its
+ * memory bound, and the results of a reader are removed when it is closed. The cache can be saved to a file
+ * and loaded by the next run.
+ */
+public class QueryResultCache
+{
+	// results by key, in the order they were last used
+	private LinkedHashMap<Key, Result> entries = new LinkedHashMap<Key, Result>(16, 0.75f, true);
+	// version of every open reader which was searched, the readers are not kept from being collected
+	private Map<IndexReader, String> readerVersions = new WeakHashMap<IndexReader, String>();
+
+	private long maxBytes = 0;
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	public QueryResultCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/*
+	 * Class for the top results of a query: doc ids and scores in the order they were put
+	 */
+	public static class Result
+	{
+		private int[] docIds = null;
+		private double[] scores = null;
+
+		public Result(int[] docIds, double[] scores)
+		{
+			this.docIds = docIds;
+			this.scores = scores;
+		}
+
+		public int size()
+		{
+			return docIds.length;
+		}
+
+		public int getDocId(int i)
+		{
+			return docIds[i];
+		}
+
+		public double getScore(int i)
+		{
+			return scores[i];
+		}
+	}
+
+	/*
+	 * Method to get the key of analyzed query terms. The terms are not sorted: scores are summed in query order,
+	 * and another order may change them in the last bits.
+	 */
+	public static String getQueryKey(Collection<Term> queryterms)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Term t: queryterms)
+		{
+			sb.append(t.field()).append(':').append(t.text()).append(' ');
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Method to get the results of a query on reader, null if they are not in the cache
+	 */
+	public synchronized Result get(IndexReader reader, String query, String similarity, int k) throws IOException
+	{
+		Result result = entries.get(new Key(query, similarity, k, getReaderVersion(reader)));
+		if (null != result)
+		{
+			hits++;
+		}
+		else
+		{
+			misses++;
+		}
+		return result;
+	}
+
+	/*
+	 * Method to keep the results of a query on reader, the arrays must not be changed afterwards
+	 */
+	public synchronized void put(IndexReader reader, String query, String similarity, int k, int[] docIds, double[] scores) throws IOException
+	{
+		add(new Key(query, similarity, k, getReaderVersion(reader)), new Result(docIds, scores));
+	}
+
+	/*
+	 * Method to keep the results in a collector, in the order of the collector
+	 */
+	public void put(IndexReader reader, String query, String similarity, int k, TopKCollector collector) throws IOException
+	{
+		int[] docIds = new int[collector.size()];
+		double[] scores = new double[collector.size()];
+		for (int i = 0; i < docIds.length; i++)
+		{
+			docIds[i] = collector.getDocId(i);
+			scores[i] = collector.getScore(i);
+		}
+		put(reader, query, similarity, k, docIds, scores);
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	public synchronized long getInvalidations()
+	{
+		return invalidations;
+	}
+
+	public synchronized double getHitRate()
+	{
+		return (hits + misses > 0) ? (double) hits / (hits + misses) : 0;
+	}
+
+	/*
+	 * Method to get the hits, misses and size of the cache as one line
+	 */
+	public synchronized String getStats()
+	{
+		return String.format("Result cache: %d hits, %d misses (%.1f%% hits), %d evicted, %d invalidated, %d results in %.1f MB",
+				hits, misses, 100 * getHitRate(), evictions, invalidations, entries.size(), bytes / 1e6);
+	}
+
+	/*
+	 * Method to write all results to file, from the least recently used. The file is written under a temporary
+	 * name and renamed, so a run which stops while saving does not leave a broken file.
+	 */
+	public synchronized void save(File file) throws IOException
+	{
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(entries.size());
+			for (Map.Entry<Key, Result> entry: entries.entrySet())
+			{
+				Key key = entry.getKey();
+				Result result = entry.getValue();
+				writeString(out, key.query);
+				writeString(out, key.similarity);
+				out.writeInt(key.k);
+				writeString(out, key.readerVersion);
+				out.writeInt(result.size());
+				for (int i = 0; i < result.size(); i++)
+				{
+					out.writeInt(result.docIds[i]);
+					out.writeDouble(result.scores[i]);
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		file.delete();
+		if (!tempFile.renameTo(file))
+		{
+			throw new IOException("Cannot rename " + tempFile + " to " + file);
+		}
+	}
+
+	/*
+	 * Method to read the results saved by an earlier run, only those of the version of reader are kept (all if reader
+	 * is null). Returns the number of results read; a file which does not exist or is not a cache file is ignored.
+	 */
+	public synchronized int load(File file, IndexReader reader) throws IOException
+	{
+		if (!file.isFile())
+		{
+			return 0;
+		}
+		String version = (null != reader) ? getReaderVersion(reader) : null;
+		int loaded = 0;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if (in.readInt() != MAGIC)
+			{
+				return 0;
+			}
+			int count = in.readInt();
+			for (int e = 0; e < count; e++)
+			{
+				String query = readString(in);
+				String similarity = readString(in);
+				int k = in.readInt();
+				String readerVersion = readString(in);
+				int[] docIds = new int[in.readInt()];
+				double[] scores = new double[docIds.length];
+				for (int i = 0; i < docIds.length; i++)
+				{
+					docIds[i] = in.readInt();
+					scores[i] = in.readDouble();
+				}
+
+				if (null == version || version.equals(readerVersion))
+				{
+					// the shared version string of the reader is used, so it is not kept once per result
+					add(new Key(query, similarity, k, (null != version) ? version : readerVersion), new Result(docIds, scores));
+					loaded++;
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return loaded;
+	}
+
+	/*
+	 * Method to get the file of a cache next to an index directory
+	 */
+	public static File getCacheFile(String index_dir, String name)
+	{
+		return new File(index_dir + CACHE_DIR_SUFFIX, name + FILE_EXTENSION);
+	}
+
+	private void add(Key key, Result result)
+	{
+		long entryBytes = getBytes(key, result);
+		if (entryBytes > maxBytes)
+		{
+			return;
+		}
+		Result old = entries.put(key, result);
+		if (null != old)
+		{
+			bytes -= getBytes(key, old);
+		}
+		bytes += entryBytes;
+
+		// remove the least recently used results until the cache fits
+		Iterator<Map.Entry<Key, Result>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext())
+		{
+			Map.Entry<Key, Result> eldest = it.next();
+			bytes -= getBytes(eldest.getKey(), eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/*
+	 * Method to estimate the memory of a result and its key, the version string is shared by all results of a reader
+	 */
+	private static long getBytes(Key key, Result result)
+	{
+		return ENTRY_OVERHEAD + 2L * (key.query.length() + key.similarity.length()) + 12L * result.size();
+	}
+
+	/*
+	 * Method to get the version of reader. The first time a reader is seen its version is made from its segments and
+	 * a listener is added which removes its results when it is closed.
+	 */
+	private String getReaderVersion(IndexReader reader)
+	{
+		String version = readerVersions.get(reader);
+		if (null == version)
+		{
+			version = makeReaderVersion(reader);
+			readerVersions.put(reader, version);
+			reader.addReaderClosedListener(new IndexReader.ReaderClosedListener()
+			{
+				@Override
+				public void onClose(IndexReader closedReader)
+				{
+					invalidate(closedReader);
+				}
+			});
+		}
+		return version;
+	}
+
+	/*
+	 * Method to make the version of a reader from the directory, name, size, creation time and deletes of every
+	 * segment. Segments which are not in a directory on disk only get a version for this run.
+	 */
+	private static String makeReaderVersion(IndexReader reader)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (AtomicReaderContext leafContext: reader.leaves())
+		{
+			AtomicReader leafReader = leafContext.reader();
+			if (leafReader instanceof SegmentReader && ((SegmentReader) leafReader).directory() instanceof FSDirectory)
+			{
+				SegmentReader segmentReader = (SegmentReader) leafReader;
+				SegmentCommitInfo info = segmentReader.getSegmentInfo();
+				String timestamp = info.info.getDiagnostics().get("timestamp");
+				sb.append(((FSDirectory) segmentReader.directory()).getDirectory().getAbsolutePath()).append('/')
+						.append(info.info.name).append('-').append(info.info.getDocCount()).append('-')
+						.append((null != timestamp) ? timestamp : "0").append('-').append(info.getDelGen());
+			}
+			else
+			{
+				sb.append('@').append(System.identityHashCode(leafReader.getCoreCacheKey()));
+			}
+			sb.append('-').append(leafReader.numDocs()).append(';');
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Method to remove the results of a closed reader, unless another open reader has the same version
+	 */
+	private synchronized void invalidate(IndexReader closedReader)
+	{
+		String version = readerVersions.remove(closedReader);
+		if (null == version || readerVersions.containsValue(version))
+		{
+			return;
+		}
+		Iterator<Map.Entry<Key, Result>> it = entries.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<Key, Result> entry = it.next();
+			if (entry.getKey().readerVersion.equals(version))
+			{
+				bytes -= getBytes(entry.getKey(), entry.getValue());
+				it.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Key of a result
+	 */
+	private static class Key
+	{
+		private String query;
+		private String similarity;
+		private int k;
+		private String readerVersion;
+
+		public Key(String query, String similarity, int k, String readerVersion)
+		{
+			this.query = query;
+			this.similarity = similarity;
+			this.k = k;
+			this.readerVersion = readerVersion;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key) obj;
+			return k == other.k && query.equals(other.query) && similarity.equals(other.similarity) && readerVersion.equals(other.readerVersion);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ((query.hashCode() * 31 + similarity.hashCode()) * 31 + k) * 31 + readerVersion.hashCode();
+		}
+	}
+
+	// directory of the cache files next to an index directory
+	public static final String CACHE_DIR_SUFFIX = "_results";
+	public static final String FILE_EXTENSION = ".cache";
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	// estimated memory of a result and its key besides the strings and arrays
+	private static final long ENTRY_OVERHEAD = 160;
+	private static final int MAGIC = 0x51524341;
+}
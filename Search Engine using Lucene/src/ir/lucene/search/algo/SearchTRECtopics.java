@@ -10,55 +10,140 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.AtomicReaderContext;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.similarities.DefaultSimilarity;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Bits;
 
 public class SearchTRECtopics 
 {
-	// map to store term and all the documents which contain it with frequency
-	private Map<Term, Map<Integer, Integer>> termFreqMap = null;
-	// map to store term and its IDF
-	private Map<Term, Double> termIDF = null;
+	// postings and IDF of the query terms, in the order of the query
+	private TermPostings[] postings = null;
 	private IndexReader reader = null;
-	private PriorityQueue<DocScore> pq = null;
+	// top results of the query, and of every doc id range when scoring with several threads, reused for all queries
+	private TopKCollector topK = null;
+	private TopKCollector[] rangeTopK = new TopKCollector[0];
 	
-	private Map<Integer, Float> docLenMap = new HashMap<Integer, Float>();
+	// normalized length of every document, indexed by doc id
+	private float[] docLen = null;
+	private DocLengthCache docLenCache = null;
+	// results of queries which were already run, null to score every query
+	private QueryResultCache resultCache = null;
+	// postings of terms of earlier queries, null to read the postings of every query
+	private TermPostingsCache postingsCache = null;
+	
+	// the analyzer and parser are made once for all queries
+	private Analyzer analyzer = new StandardAnalyzer();
+	private QueryParser queryparser = new QueryParser("TEXT", analyzer);
 	
 	private int resultSize = 0;
 	
+	// skip documents which cannot enter the top results (WAND), the results are the same as without
+	private boolean pruning = false;
+	// threads which read postings and score documents, no pool for one thread
+	private int threads = 1;
+	private ForkJoinPool pool = null;
+	
+	// postings of all queries so far, and the postings which were not scored because of pruning
+	private long totalPostings = 0;
+	private long skippedPostings = 0;
+	
 	public SearchTRECtopics(int resultSize)
 	{
 		this.resultSize = resultSize;
 	}
 	
+	public void setPruning(boolean pruning)
+	{
+		this.pruning = pruning;
+	}
+	
+	/*
+	 * method to read the postings and score the documents of a query with several threads, 1 to use only the calling thread
+	 */
+	public void setThreads(int threads)
+	{
+		this.threads = threads;
+		pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+	}
+	
+	/*
+	 * method to get the share of the postings of all queries so far which were skipped by pruning
+	 */
+	public double getSkippedFraction()
+	{
+		return (totalPostings > 0) ? (double) skippedPostings / totalPostings : 0;
+	}
+	
 	public void readIndex() throws IOException
 	{
-		reader = DirectoryReader.open(FSDirectory.open(new File("E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\index\\default")));
+		// an index which is already set, e.g. a near-real-time snapshot, is not replaced
+		if (null == reader)
+		{
+			reader = ShardedIndex.open(INPUT_INDEX_DIR);
+			if (null == docLenCache)
+			{
+				docLenCache = new DocLengthCache(new File(INPUT_INDEX_DIR + DocLengthCache.CACHE_DIR_SUFFIX));
+			}
+		}
+	}
+	
+	/*
+	 * method to keep the document lengths in sidecar files which are reused by the next runs, null to decode them every time
+	 */
+	public void setDocLengthCache(DocLengthCache docLenCache)
+	{
+		this.docLenCache = docLenCache;
+	}
+	
+	/*
+	 * method to keep the results of the queries, so that a query which is run again on the same index is not scored again
+	 */
+	public void setResultCache(QueryResultCache resultCache)
+	{
+		this.resultCache = resultCache;
+	}
+	
+	/*
+	 * method to keep the postings of the query terms for the next queries, e.g. for the queries of a topic file
+	 */
+	public void setPostingsCache(TermPostingsCache postingsCache)
+	{
+		this.postingsCache = postingsCache;
+	}
+	
+	public IndexReader getReader()
+	{
+		return reader;
+	}
+	
+	/*
+	 * method to search a given point-in-time view of the index, e.g. a snapshot of an index which is still written.
+	 * The reader is not closed by this class.
+	 */
+	public void setReader(IndexReader reader) throws IOException
+	{
+		if (this.reader != reader)
+		{
+			this.reader = reader;
+			loadNormDocLen();
+		}
 	}
 	
 	/*
@@ -66,108 +151,300 @@ public class SearchTRECtopics
 	 */
 	public void calculateTermIDF(Set<Term> queryterms) throws IOException
 	{
-		int totalDoc = reader.maxDoc(); // total number of documents in the corpus
+		Bits liveDocs = MultiFields.getLiveDocs(reader);
+		Term[] terms = queryterms.toArray(new Term[queryterms.size()]);
+		postings = new TermPostings[terms.length];
 		
-		// calculate idf and term frequency in each document
-		for (Term t: queryterms)
+		// read the doc ids and term frequencies of each term into arrays, the terms of long queries in parallel
+		if (null == pool || terms.length < 2 * TERMS_PER_TASK)
 		{
-			Map<Integer, Integer> termFreq = new HashMap<Integer, Integer>();
-			
-			// get the term frequency of "new" within each document containing it for <field>TEXT</field>
-			DocsEnum de = MultiFields.getTermDocsEnum(reader, MultiFields.getLiveDocs(reader), "TEXT", new BytesRef(t.text()));
-			int doc = 0;
-			int termDocFreq = 0;
-			while ((null != de) && (doc = de.nextDoc()) != DocsEnum.NO_MORE_DOCS)
+			for (int i = 0; i < terms.length; i++)
 			{
-				termFreq.put(de.docID(), de.freq());
-				termDocFreq++;
+				postings[i] = readPostings(liveDocs, terms[i]);
 			}
-			
-			termFreqMap.put(t, termFreq);
-			
-			double idf = 0;
-			if (termDocFreq > 0)
+			return;
+		}
+		
+		List<PostingsTask> tasks = new ArrayList<PostingsTask>();
+		for (int from = 0; from < terms.length; from += TERMS_PER_TASK)
+		{
+			tasks.add(new PostingsTask(terms, liveDocs, from, Math.min(from + TERMS_PER_TASK, terms.length)));
+		}
+		pool.invoke(new AllTasks(tasks));
+		for (PostingsTask task: tasks)
+		{
+			if (null != task.failure)
 			{
-				idf = Math.log(1+ (totalDoc/termDocFreq));
+				throw task.failure;
 			}
-			termIDF.put(t, idf);
 		}
 	}
 	
 	/*
-	 * method to load normalized document length in the hashtable
+	 * method to load normalized document length in the array, from the sidecar files of the cache when one is set
 	 */
 	public void loadNormDocLen() throws IOException
 	{
-		// use DefaultSimilarity.decodeNormValue(..) to normalize document length
-		DefaultSimilarity dsimi = new DefaultSimilarity();
+		if (null != docLenCache)
+		{
+			docLen = docLenCache.load(reader);
+			return;
+		}
 		
-		// get the segment of the index
-		List<AtomicReaderContext> leafContexts = reader.getContext().reader().leaves();
-
-		for (AtomicReaderContext leafContext: leafContexts)
+		docLen = new float[reader.maxDoc()];
+		for (AtomicReaderContext leafContext: reader.leaves())
 		{
-			int startDocNo = leafContext.docBase;
-			int numberOfDoc = leafContext.reader().maxDoc();
-			int maxSegDoc = startDocNo + numberOfDoc;
-			
-			for (int docId = startDocNo; docId < maxSegDoc; docId++)
+			DocLengthCache.decodeSegment(leafContext.reader(), docLen, leafContext.docBase);
+		}
+	}	
+	
+	/*
+	 * method to normalize exact document length the same way as DefaultSimilarity, without its lossy encoding
+	 */
+	public static float getNormDocLen(long length)
+	{
+		return (length > 0) ? (float) (1.0 / Math.sqrt(length)) : 1f;
+	}
+	
+	/*
+	 * method to get the postings of a term from the cache, or read them from the index
+	 */
+	private TermPostings readPostings(Bits liveDocs, Term term) throws IOException
+	{
+		TermPostings tp = (null != postingsCache) ? postingsCache.get(reader, term) : null;
+		if (null == tp)
+		{
+			tp = TermPostings.read(reader, liveDocs, term);
+			if (null != postingsCache)
 			{
-				// get normalized length for each document in the segment
-				float normDocLen = dsimi.decodeNormValue(leafContext.reader().getNormValues("TEXT").get(docId - startDocNo));
-				//System.out.println("Normalized length for doc ("+docId+") is "+ normDocLen);
-				docLenMap.put(docId, normDocLen);
+				postingsCache.put(reader, tp);
 			}
 		}
-	}	
+		return tp;
+	}
 	
 	/*
-	 *  method to calculate final TF_IDF score for given query terms
+	 *  method to calculate final TF_IDF score for given query terms, document at a time: the postings of all terms
+	 *  are walked together in doc id order and every document is scored once and offered to the top results.
+	 *  With more than one thread the doc ids are split in ranges which are scored in parallel, each into its own
+	 *  top results, which are merged at the end.
 	 */
 	public void calculateTFIDF(Set<Term> queryterms) throws IOException
 	{
-		int topResults = 0;
-		// find union of all document ids which contain the query terms
-		Set<Integer> allTermDocIds = new HashSet<Integer>();
-
-		// merge all doc id's of term, so that only those can be processed together
-		for (Term t: queryterms)
+		long queryPostings = 0;
+		// upper bound of the score of every term, computed once for all ranges
+		double[] maxScores = new double[postings.length];
+		for (int t = 0; t < postings.length; t++)
 		{
-			Set<Entry<Integer, Integer>> set= termFreqMap.get(t).entrySet();
-			Iterator<Entry<Integer, Integer>> it = set.iterator();
-			while(it.hasNext())
+			queryPostings += postings[t].size();
+			if (pruning)
 			{
-				allTermDocIds.add(it.next().getKey());
+				maxScores[t] = postings[t].getMaxScore(docLen);
 			}
 		}
 		
-		for (int docId: allTermDocIds)
+		long scoredPostings = 0;
+		int maxDoc = reader.maxDoc();
+		if (null == pool || maxDoc < 2 * MIN_DOCS_PER_RANGE)
+		{
+			scoredPostings = scoreRange(0, maxDoc, maxScores, topK);
+		}
+		else
+		{
+			int ranges = Math.min(threads * RANGES_PER_THREAD, maxDoc / MIN_DOCS_PER_RANGE);
+			int rangeSize = (maxDoc + ranges - 1) / ranges;
+			if (rangeTopK.length < ranges)
+			{
+				rangeTopK = Arrays.copyOf(rangeTopK, ranges);
+			}
+			List<ScoreTask> tasks = new ArrayList<ScoreTask>();
+			for (int from = 0; from < maxDoc; from += rangeSize)
+			{
+				int range = tasks.size();
+				if (null == rangeTopK[range])
+				{
+					rangeTopK[range] = new TopKCollector(resultSize);
+				}
+				rangeTopK[range].reset();
+				tasks.add(new ScoreTask(from, Math.min(from + rangeSize, maxDoc), maxScores, rangeTopK[range]));
+			}
+			pool.invoke(new AllTasks(tasks));
+			
+			// ties are broken by doc id, so the merged results are the same as those of one thread
+			for (ScoreTask task: tasks)
+			{
+				scoredPostings += task.scoredPostings;
+				for (int i = 0; i < task.collector.size(); i++)
+				{
+					topK.collect(task.collector.getDocId(i), task.collector.getScore(i));
+				}
+			}
+		}
+		
+		if (pruning)
+		{
+			totalPostings += queryPostings;
+			skippedPostings += queryPostings - scoredPostings;
+		}
+	}
+	
+	/*
+	 * method to score the documents in [from, to) into collector, returns the number of postings which were scored
+	 */
+	private long scoreRange(int from, int to, double[] maxScores, TopKCollector collector)
+	{
+		if (pruning)
+		{
+			return scoreRangePruned(from, to, maxScores, collector);
+		}
+		
+		long scoredPostings = 0;
+		TermCursorHeap cursors = new TermCursorHeap(postings, from);
+		
+		while (cursors.size() > 0 && cursors.topDoc() < to)
 		{
+			int docId = cursors.topDoc();
 			double tf_idf = 0;
 			
-			for (Term t: queryterms)
+			// the cursors on this document come in the order of the query terms
+			while (cursors.size() > 0 && cursors.topDoc() == docId)
+			{
+				TermPostings tp = postings[cursors.topTerm()];
+				tf_idf += (tp.freq(cursors.topPosition())/docLen[docId]) * tp.getIdf();
+				cursors.advanceTop();
+				scoredPostings++;
+			}
+			
+			collector.collect(docId, tf_idf);
+		}
+		return scoredPostings;
+	}
+	
+	/*
+	 *  method to calculate the top TF_IDF scores with WAND: the cursors of the terms are kept in doc id order and
+	 *  every term has an upper bound of the score it adds to a document. A document is only scored when the upper
+	 *  bounds of the terms which can contain it are larger than the lowest score in the full collector; the others would
+	 *  not be collected by the exhaustive scoring either (a tie loses, as the doc ids come in increasing order),
+	 *  so the results are the same.
+	 */
+	private long scoreRangePruned(int from, int to, double[] maxScores, TopKCollector collector)
+	{
+		int n = postings.length;
+		int[] positions = new int[n];
+		// indexes of the terms whose postings are not exhausted, ordered by their current doc id
+		int[] order = new int[n];
+		int active = 0;
+		long scoredPostings = 0;
+		
+		for (int t = 0; t < n; t++)
+		{
+			positions[t] = postings[t].advance(0, from);
+			if (positions[t] < postings[t].size())
+			{
+				active = insertCursor(order, active, t, positions);
+			}
+		}
+		
+		int[] matched = new int[n];
+		while (active > 0)
+		{
+			// score a document has to beat, nothing can be skipped until the collector is full
+			double threshold = collector.isFull() ? collector.getMinScore() : Double.NEGATIVE_INFINITY;
+			
+			// pivot is the first cursor at which the upper bounds of the cursors up to it can beat the threshold.
+			// The bounds are summed in another order than the scores, the slack covers the difference in rounding.
+			double bound = 0;
+			int pivot = -1;
+			for (int i = 0; i < active; i++)
 			{
-				if (termFreqMap.get(t).containsKey(docId))
+				bound += maxScores[order[i]];
+				if (bound * (1 + UPPER_BOUND_SLACK) > threshold)
 				{
-					tf_idf += (termFreqMap.get(t).get(docId)/docLenMap.get(docId)) * termIDF.get(t);
+					pivot = i;
+					break;
 				}
 			}
+			if (pivot < 0)
+			{
+				// no document left can beat the threshold
+				break;
+			}
 			
-			// add resulting document id and its score in the priority queue
-			if (topResults != resultSize)
+			int pivotDoc = postings[order[pivot]].doc(positions[order[pivot]]);
+			if (pivotDoc >= to)
 			{
-				pq.add(new DocScore(docId, tf_idf));
-				topResults++;
+				break;
+			}
+			int moved = 0;
+			if (postings[order[0]].doc(positions[order[0]]) == pivotDoc)
+			{
+				// all cursors up to the pivot are on the pivot document, score it with every cursor on it in query order
+				while (moved < active && postings[order[moved]].doc(positions[order[moved]]) == pivotDoc)
+				{
+					matched[moved] = order[moved];
+					moved++;
+				}
+				Arrays.sort(matched, 0, moved);
+				
+				double tf_idf = 0;
+				for (int i = 0; i < moved; i++)
+				{
+					TermPostings tp = postings[matched[i]];
+					tf_idf += (tp.freq(positions[matched[i]])/docLen[pivotDoc]) * tp.getIdf();
+					positions[matched[i]]++;
+				}
+				scoredPostings += moved;
+				
+				collector.collect(pivotDoc, tf_idf);
 			}
 			else
 			{
-				if (pq.peek().getScore() < tf_idf)
+				// documents before the pivot document can only be in the cursors before the pivot, whose bounds are too small
+				while (postings[order[moved]].doc(positions[order[moved]]) < pivotDoc)
 				{
-					pq.poll();
-					pq.add(new DocScore(docId, tf_idf));
+					matched[moved] = order[moved];
+					positions[matched[moved]] = postings[matched[moved]].advance(positions[matched[moved]], pivotDoc);
+					moved++;
 				}
 			}
+			
+			// the moved cursors are at the front, take them out and insert the ones which are not exhausted in doc id order
+			active -= moved;
+			System.arraycopy(order, moved, order, 0, active);
+			for (int i = 0; i < moved; i++)
+			{
+				if (positions[matched[i]] < postings[matched[i]].size())
+				{
+					active = insertCursor(order, active, matched[i], positions);
+				}
+			}
+		}
+		return scoredPostings;
+	}
+	
+	/*
+	 * method to insert the cursor of term into the cursors ordered by doc id, returns the new number of cursors
+	 */
+	private int insertCursor(int[] order, int active, int term, int[] positions)
+	{
+		int doc = postings[term].doc(positions[term]);
+		int low = 0;
+		int high = active;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (postings[order[mid]].doc(positions[order[mid]]) <= doc)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
 		}
+		System.arraycopy(order, low, order, low + 1, active - low);
+		order[low] = term;
+		return active + 1;
 	}
 	
 	/*
@@ -182,34 +459,59 @@ public class SearchTRECtopics
 		}
 		
 		// get the pre-processed query terms
-		Analyzer analyzer = new StandardAnalyzer();
-		QueryParser queryparser = new QueryParser("TEXT", analyzer);
 		Query query = queryparser.parse(QueryParser.escape(queryString));
 		Set<Term> queryterms = new LinkedHashSet<Term>();
 		query.extractTerms(queryterms);
 		
-		// priority queue to maintain top results in order
-		pq = new PriorityQueue<DocScore>(resultSize, new DocScoreComparator());
-		termFreqMap = new HashMap<Term, Map<Integer, Integer>>();
-		termIDF = new HashMap<Term, Double>();
+		// the collector is made once and emptied for every query
+		if (null == topK)
+		{
+			topK = new TopKCollector(resultSize);
+		}
+		topK.reset();
+		
+		String queryKey = null;
+		if (null != resultCache)
+		{
+			queryKey = QueryResultCache.getQueryKey(queryterms);
+			QueryResultCache.Result cached = resultCache.get(reader, queryKey, SIMILARITY_NAME, resultSize);
+			if (null != cached)
+			{
+				for (int i = 0; i < cached.size(); i++)
+				{
+					topK.collect(cached.getDocId(i), cached.getScore(i));
+				}
+				return;
+			}
+		}
 		
 		calculateTermIDF(queryterms);
 		
 		calculateTFIDF(queryterms);
 		
+		if (null != resultCache)
+		{
+			resultCache.put(reader, queryKey, SIMILARITY_NAME, resultSize, topK);
+		}
 	}
 	
 	/*
-	 * method to print top results from the priority queue
+	 * method to print top results from the priority queue, the DOCNOs of all results are looked up at once
 	 */
 	public void printTopResults(int trecNumber, String q, BufferedWriter bw, String runId) throws IOException
 	{
-		if(!pq.isEmpty())
+		// the collector gives the results from the highest score
+		int n = topK.sort();
+		int[] docIds = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			docIds[i] = topK.getDocId(i);
+		}
+		
+		String[] docnos = DocNoLookup.lookup(reader, docIds, "DOCNO");
+		for (int i = 0; i < n; i++)
 		{
-			DocScore ds = pq.poll();
-			int rank = pq.size();
-			printTopResults(trecNumber, q, bw, runId);
-			bw.write(trecNumber+"	"+	q	+"	"+reader.document(ds.getDocId()).get("DOCNO") +"	"+(rank+1)+"	"+ds.getScore()+"	"+runId);
+			bw.write(trecNumber+"	"+	q	+"	"+docnos[i] +"	"+(i+1)+"	"+topK.getScore(i)+"	"+runId);
 			bw.newLine();
 		}
 	}
@@ -221,62 +523,102 @@ public class SearchTRECtopics
 	}
 	
 	public static final String INPUT_QUERY_FILE_NAME = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\topics.51-100";
+	// doc values column with the exact length of TEXT, written by GenerateIndex when exact lengths are set
+	public static final String TEXT_LENGTH_FIELD = "TEXT_LENGTH";
+	// name of the scoring of this class in the keys of the result cache
+	public static final String SIMILARITY_NAME = "SearchTRECtopics-TFIDF";
+	// smallest range of doc ids and number of query terms handled by one task, and ranges per thread for load balancing
+	public static final int MIN_DOCS_PER_RANGE = 4096;
+	public static final int TERMS_PER_TASK = 16;
+	public static final int RANGES_PER_THREAD = 4;
+	// relative slack of the upper bounds of WAND
+	public static final double UPPER_BOUND_SLACK = 1e-9;
+	public static final String INPUT_INDEX_DIR = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\index\\default";
 	
 	/*
-	 * Class for storing document id and corresponding score in the final result
-	 * */
-	class DocScore
+	 * Task which runs the tasks of one query in the pool and waits for all of them
+	 */
+	private class AllTasks extends RecursiveAction
 	{
-		private int docId;
-		private double score;
+		private static final long serialVersionUID = 1L;
 		
-		public DocScore(int docId, double score)
-		{
-			this.docId = docId;
-			this.score = score;
-		}
+		private List<? extends RecursiveAction> tasks = null;
 		
-		public int getDocId() 
+		public AllTasks(List<? extends RecursiveAction> tasks)
 		{
-			return docId;
+			this.tasks = tasks;
 		}
 		
-		public void setDocId(int docId) 
+		@Override
+		protected void compute()
 		{
-			this.docId = docId;
+			invokeAll(tasks);
 		}
+	}
+	
+	/*
+	 * Task to read the postings of the query terms in [from, to)
+	 */
+	private class PostingsTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private Term[] terms = null;
+		private Bits liveDocs = null;
+		private int from = 0;
+		private int to = 0;
+		private IOException failure = null;
 		
-		public double getScore() 
+		public PostingsTask(Term[] terms, Bits liveDocs, int from, int to)
 		{
-			return score;
+			this.terms = terms;
+			this.liveDocs = liveDocs;
+			this.from = from;
+			this.to = to;
 		}
 		
-		public void setScore(double score) 
+		@Override
+		protected void compute()
 		{
-			this.score = score;
+			try
+			{
+				for (int i = from; i < to; i++)
+				{
+					postings[i] = readPostings(liveDocs, terms[i]);
+				}
+			}
+			catch (IOException ex)
+			{
+				failure = ex;
+			}
 		}
 	}
-
+	
 	/*
-	 * Supporting class for priority queue which maintains data in ascending order
-	 * */
-	class DocScoreComparator implements Comparator<DocScore>
+	 * Task to score the documents in [from, to) into its own collector
+	 */
+	private class ScoreTask extends RecursiveAction
 	{
+		private static final long serialVersionUID = 1L;
+		
+		private int from = 0;
+		private int to = 0;
+		private double[] maxScores = null;
+		private TopKCollector collector = null;
+		private long scoredPostings = 0;
+		
+		public ScoreTask(int from, int to, double[] maxScores, TopKCollector collector)
+		{
+			this.from = from;
+			this.to = to;
+			this.maxScores = maxScores;
+			this.collector = collector;
+		}
+		
 		@Override
-		public int compare(DocScore doc1, DocScore doc2) 
+		protected void compute()
 		{
-			if (doc1.getScore() > doc2.getScore())
-			{
-				return 1;
-			}
-			else if (doc1.getScore() < doc2.getScore())
-			{
-				return -1;
-			}
-			else
-			{
-				return 0;
-			}
+			scoredPostings = scoreRange(from, to, maxScores, collector);
 		}
 	}
 }
@@ -289,10 +631,17 @@ class ProcessQueryFile
 	private SearchTRECtopics search = null;
 	private BufferedReader br = null; // read input index
 	private BufferedWriter bw = null; // writes output docid and score to file
+	private QueryResultCache resultCache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES);
+	// postings of the terms of the title and desc queries, kept for the whole run
+	private TermPostingsCache postingsCache = new TermPostingsCache(TermPostingsCache.DEFAULT_MAX_BYTES);
 	
 	public ProcessQueryFile(int resultsize) 
 	{
 		search = new SearchTRECtopics(resultsize);
+		search.setPruning(true);
+		search.setThreads(Runtime.getRuntime().availableProcessors());
+		search.setResultCache(resultCache);
+		search.setPostingsCache(postingsCache);
 	}
 
 	/*
@@ -434,14 +783,24 @@ class ProcessQueryFile
 	{
 		String[] searchTags = {"title", "desc"};
 		
+		// results of the earlier runs on the same index
+		search.readIndex();
+		File cacheFile = QueryResultCache.getCacheFile(SearchTRECtopics.INPUT_INDEX_DIR, RESULT_CACHE_NAME);
+		resultCache.load(cacheFile, search.getReader());
+		
 		for (String searchTag: searchTags)
 		{
 			processQueries(filename, searchTag);
 			closeBuffers();
 		}
+		resultCache.save(cacheFile);
+		System.out.println(String.format("Postings skipped by pruning: %.1f%%", 100 * search.getSkippedFraction()));
+		System.out.println(resultCache.getStats());
+		System.out.println(postingsCache.getStats());
 	}	
 
 	public static final String SEARACH_SHORT_QUERY_FILE = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\searchoutput\\myAlgoShortQuery.txt";
 	public static final String SEARACH_LONG_QUERY_FILE = "E:\\IUB_all\\Fall-2014\\Info Retrieval\\hw2\\searchoutput\\myAlgoLongQuery.txt";
+	public static final String RESULT_CACHE_NAME = "myAlgo";
 
 }
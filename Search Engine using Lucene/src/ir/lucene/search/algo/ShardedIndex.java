@@ -0,0 +1,67 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.FSDirectory;
+
+/*
+ * Class to open an index which may have been built as shards (<index dir>/shard-<n>).
+ * All shards are searched as one index through a MultiReader.
+ */
+public class ShardedIndex
+{
+	/*
+	 * Method to open all shards in an index directory as one index, or the index itself when it has no shards.
+	 * Builds of a plain index remove the shards of an earlier sharded build. The number of shards recorded by
+	 * the indexer is opened; indexes without the record are probed from shard-0 until one is missing.
+	 */
+	public static IndexReader open(String index_dir) throws IOException
+	{
+		List<IndexReader> shardReaders = new ArrayList<IndexReader>();
+		int shardCount = readShardCount(index_dir);
+		for (int i = 0; (shardCount >= 0) ? i < shardCount : getShardDir(index_dir, i).isDirectory(); i++)
+		{
+			shardReaders.add(DirectoryReader.open(FSDirectory.open(getShardDir(index_dir, i))));
+		}
+
+		if (shardReaders.isEmpty())
+		{
+			return DirectoryReader.open(FSDirectory.open(new File(index_dir)));
+		}
+		return new MultiReader(shardReaders.toArray(new IndexReader[shardReaders.size()]));
+	}
+
+	public static File getShardDir(String index_dir, int shard)
+	{
+		return new File(index_dir, SHARD_DIR_PREFIX + shard);
+	}
+
+	/*
+	 * Method to get the number of shards written by the last build of the indexer, -1 if it is not recorded
+	 */
+	public static int readShardCount(String index_dir) throws IOException
+	{
+		File countFile = new File(index_dir, SHARD_COUNT_FILE);
+		if (!countFile.isFile())
+		{
+			return -1;
+		}
+		return Integer.parseInt(new String(Files.readAllBytes(countFile.toPath()), StandardCharsets.UTF_8).trim());
+	}
+
+	public static final String SHARD_DIR_PREFIX = "shard-";
+	// file in the index directory with the number of shards, written by ShardedIndexer
+	public static final String SHARD_COUNT_FILE = "shards.count";
+}
@@ -0,0 +1,140 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import org.apache.lucene.index.DocsEnum;
+
+/*
+ * Class to walk the postings of all query terms together in increasing doc id order (document at a time).
+ * Every term has a cursor on its postings, the cursors are kept in a min heap ordered by their current doc id
+ * and then by the position of the term in the query, so the cursors of one doc come out in query order.
+ */
+public class TermCursorHeap
+{
+	private TermPostings[] postings = null;
+	// current position of the cursor of each term in its postings
+	private int[] positions = null;
+	// indexes of the terms whose cursors are not exhausted, as a binary heap
+	private int[] heap = null;
+	private int size = 0;
+
+	public TermCursorHeap(TermPostings[] postings)
+	{
+		this(postings, 0);
+	}
+
+	/*
+	 * The cursors start at the first doc id >= fromDoc, so that a range of doc ids can be walked on its own
+	 */
+	public TermCursorHeap(TermPostings[] postings, int fromDoc)
+	{
+		this.postings = postings;
+		this.positions = new int[postings.length];
+		this.heap = new int[postings.length];
+		for (int t = 0; t < postings.length; t++)
+		{
+			positions[t] = postings[t].advance(0, fromDoc);
+			if (positions[t] < postings[t].size())
+			{
+				heap[size++] = t;
+				upHeap(size - 1);
+			}
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/*
+	 * Method to get the smallest doc id of all cursors, NO_MORE_DOCS when all are exhausted
+	 */
+	public int topDoc()
+	{
+		return (size > 0) ? currentDoc(heap[0]) : DocsEnum.NO_MORE_DOCS;
+	}
+
+	/*
+	 * Method to get the index of the term of the top cursor
+	 */
+	public int topTerm()
+	{
+		return heap[0];
+	}
+
+	/*
+	 * Method to get the position of the top cursor in the postings of its term
+	 */
+	public int topPosition()
+	{
+		return positions[heap[0]];
+	}
+
+	/*
+	 * Method to move the top cursor to its next doc, it is removed when its postings are exhausted
+	 */
+	public void advanceTop()
+	{
+		int term = heap[0];
+		positions[term]++;
+		if (positions[term] == postings[term].size())
+		{
+			size--;
+			heap[0] = heap[size];
+		}
+		if (size > 0)
+		{
+			downHeap(0);
+		}
+	}
+
+	private int currentDoc(int term)
+	{
+		return postings[term].doc(positions[term]);
+	}
+
+	private boolean lessThan(int term1, int term2)
+	{
+		int doc1 = currentDoc(term1);
+		int doc2 = currentDoc(term2);
+		return (doc1 < doc2) || (doc1 == doc2 && term1 < term2);
+	}
+
+	private void upHeap(int i)
+	{
+		int term = heap[i];
+		while (i > 0 && lessThan(term, heap[(i - 1) >>> 1]))
+		{
+			heap[i] = heap[(i - 1) >>> 1];
+			i = (i - 1) >>> 1;
+		}
+		heap[i] = term;
+	}
+
+	private void downHeap(int i)
+	{
+		int term = heap[i];
+		while (true)
+		{
+			int child = 2 * i + 1;
+			if (child >= size)
+			{
+				break;
+			}
+			if (child + 1 < size && lessThan(heap[child + 1], heap[child]))
+			{
+				child++;
+			}
+			if (!lessThan(heap[child], term))
+			{
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = term;
+	}
+}
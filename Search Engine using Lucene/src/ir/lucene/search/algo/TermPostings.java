@@ -0,0 +1,170 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+
+/*
+ * Class to hold the postings of a query term in primitive arrays: the ids of the live docs which contain
+ * the term in increasing order, and the frequency of the term in each of them. Nothing is boxed, so long
+ * queries with frequent terms do not fill the heap with Integer objects.
+ */
+public class TermPostings
+{
+	private Term term = null;
+	private int[] docs = null;
+	private int[] freqs = null;
+	private int size = 0;
+	private double idf = 0;
+
+	// largest score of the term and the doc lengths it was computed for, postings from the cache keep it between queries
+	private float[] maxScoreDocLen = null;
+	private double maxScore = 0;
+
+	private TermPostings(Term term, int capacity)
+	{
+		this.term = term;
+		this.docs = new int[capacity];
+		this.freqs = new int[capacity];
+	}
+
+	/*
+	 * Method to read the postings of term in the live docs of reader and calculate the IDF of the term
+	 */
+	public static TermPostings read(IndexReader reader, Bits liveDocs, Term term) throws IOException
+	{
+		// docFreq also counts deleted docs, so the arrays are large enough for all live docs
+		TermPostings postings = new TermPostings(term, reader.docFreq(term));
+
+		DocsEnum de = MultiFields.getTermDocsEnum(reader, liveDocs, term.field(), term.bytes());
+		int doc = 0;
+		while ((null != de) && (doc = de.nextDoc()) != DocsEnum.NO_MORE_DOCS)
+		{
+			if (postings.size == postings.docs.length)
+			{
+				// only when docFreq is not up to date, e.g. for a reader of several indexes
+				postings.docs = ArrayUtil.grow(postings.docs, postings.size + 1);
+				postings.freqs = ArrayUtil.grow(postings.freqs, postings.size + 1);
+			}
+			postings.docs[postings.size] = doc;
+			postings.freqs[postings.size] = de.freq();
+			postings.size++;
+		}
+
+		if (postings.size > 0)
+		{
+			postings.idf = Math.log(1+ (reader.maxDoc()/postings.size));
+		}
+		return postings;
+	}
+
+	public Term getTerm()
+	{
+		return term;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/*
+	 * Method to get the i-th doc id, 0 <= i < size()
+	 */
+	public int doc(int i)
+	{
+		return docs[i];
+	}
+
+	public int freq(int i)
+	{
+		return freqs[i];
+	}
+
+	public double getIdf()
+	{
+		return idf;
+	}
+
+	/*
+	 * Method to estimate the memory of the postings
+	 */
+	public long getBytes()
+	{
+		return OBJECT_OVERHEAD + 4L * (docs.length + freqs.length);
+	}
+
+	/*
+	 * Method to get the position of the first doc id >= target, starting at position from; size() if there is none.
+	 * The positions are searched with growing steps and then by binary search, so long skips are cheap.
+	 */
+	public int advance(int from, int target)
+	{
+		int low = from;
+		int step = 1;
+		int high = from;
+		while (high < size && docs[high] < target)
+		{
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		if (high > size)
+		{
+			high = size;
+		}
+		// the first doc id >= target is in [low, high]
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (docs[mid] < target)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Method to get the largest score the term adds to any of its docs, the score of a doc is its frequency
+	 * divided by the normalized length of the doc, times IDF. It is computed the same way as in SearchTRECtopics,
+	 * so it is not smaller than any score the term adds there.
+	 * It is computed once for the same docLen array.
+	 */
+	public synchronized double getMaxScore(float[] docLen)
+	{
+		if (docLen == maxScoreDocLen)
+		{
+			return maxScore;
+		}
+
+		double max = 0;
+		for (int i = 0; i < size; i++)
+		{
+			double score = (freqs[i]/docLen[docs[i]]) * idf;
+			if (score > max)
+			{
+				max = score;
+			}
+		}
+		maxScore = max;
+		maxScoreDocLen = docLen;
+		return maxScore;
+	}
+
+	// estimated memory of the object, its term and the array headers
+	private static final long OBJECT_OVERHEAD = 128;
+}
@@ -0,0 +1,110 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+/*
+ * Class to keep the postings and IDF of query terms between the queries of a batch run, so that a term which
+ * is in several topics is read from the index once. The postings belong to one reader: when another reader is
+ * searched the cache is emptied. The least recently used terms are removed when the cache is larger than its
+ * memory bound. It may be used by several threads reading the postings of one query.
+ */
+public class TermPostingsCache
+{
+	// postings by term, in the order they were last used
+	private LinkedHashMap<Term, TermPostings> entries = new LinkedHashMap<Term, TermPostings>(16, 0.75f, true);
+	private IndexReader reader = null;
+
+	private long maxBytes = 0;
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public TermPostingsCache(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/*
+	 * Method to get the postings of term in reader, null if they are not in the cache
+	 */
+	public synchronized TermPostings get(IndexReader reader, Term term)
+	{
+		if (this.reader != reader)
+		{
+			clear();
+			this.reader = reader;
+		}
+		TermPostings postings = entries.get(term);
+		if (null != postings)
+		{
+			hits++;
+		}
+		else
+		{
+			misses++;
+		}
+		return postings;
+	}
+
+	/*
+	 * Method to keep the postings of a term in reader
+	 */
+	public synchronized void put(IndexReader reader, TermPostings postings)
+	{
+		if (this.reader != reader || postings.getBytes() > maxBytes)
+		{
+			return;
+		}
+		TermPostings old = entries.put(postings.getTerm(), postings);
+		if (null != old)
+		{
+			bytes -= old.getBytes();
+		}
+		bytes += postings.getBytes();
+
+		// remove the least recently used terms until the cache fits
+		Iterator<Map.Entry<Term, TermPostings>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext())
+		{
+			bytes -= it.next().getValue().getBytes();
+			it.remove();
+		}
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/*
+	 * Method to get the hits, misses and size of the cache as one line
+	 */
+	public synchronized String getStats()
+	{
+		return String.format("Postings cache: %d hits, %d misses (%.1f%% hits), %d terms in %.1f MB",
+				hits, misses, (hits + misses > 0) ? 100.0 * hits / (hits + misses) : 0, entries.size(), bytes / 1e6);
+	}
+
+	public static final long DEFAULT_MAX_BYTES = 256L << 20;
+}
@@ -0,0 +1,149 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/*
+ * Class to compare TopKCollector with the PriorityQueue of score objects used before: the same stream of scores,
+ * one per doc id as in the exhaustive scoring, is collected for several k and drained to a ranked list.
+ * Scores are rounded so that there are ties, as there are for short queries.
+ */
+public class TopKBenchmark
+{
+	/*
+	 * Method to make the scores of numDocs docs
+	 */
+	public double[] makeScores(int numDocs, long seed)
+	{
+		Random random = new Random(seed);
+		double[] scores = new double[numDocs];
+		for (int doc = 0; doc < numDocs; doc++)
+		{
+			scores[doc] = Math.rint(random.nextGaussian() * SCORE_STEPS) / SCORE_STEPS;
+		}
+		return scores;
+	}
+
+	/*
+	 * Method to get the mean time in milliseconds to collect the top k of the scores with a PriorityQueue and
+	 * drain it, ranks[] gets the doc ids from the best
+	 */
+	public double timePriorityQueue(double[] scores, int k, int rounds, int[] ranks)
+	{
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++)
+		{
+			PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(k, new CandidateComparator());
+			for (int doc = 0; doc < scores.length; doc++)
+			{
+				Candidate candidate = new Candidate(doc, scores[doc]);
+				if (queue.size() != k)
+				{
+					queue.add(candidate);
+				}
+				else if (queue.peek().score < candidate.score)
+				{
+					queue.poll();
+					queue.add(candidate);
+				}
+			}
+			for (int i = queue.size() - 1; i >= 0; i--)
+			{
+				ranks[i] = queue.poll().docId;
+			}
+		}
+		return (System.nanoTime() - start) / 1e6 / rounds;
+	}
+
+	/*
+	 * Method to get the mean time in milliseconds to collect the top k of the scores with one reused TopKCollector
+	 * and sort it, ranks[] gets the doc ids from the best
+	 */
+	public double timeCollector(double[] scores, int k, int rounds, int[] ranks)
+	{
+		TopKCollector collector = new TopKCollector(k);
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++)
+		{
+			collector.reset();
+			for (int doc = 0; doc < scores.length; doc++)
+			{
+				collector.collect(doc, scores[doc]);
+			}
+			int n = collector.sort();
+			for (int i = 0; i < n; i++)
+			{
+				ranks[i] = collector.getDocId(i);
+			}
+		}
+		return (System.nanoTime() - start) / 1e6 / rounds;
+	}
+
+	/*
+	 * Usage: TopKBenchmark [number of docs] [rounds]
+	 */
+	public static void main(String[] args)
+	{
+		int numDocs = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_NUM_DOCS;
+		int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+		TopKBenchmark benchmark = new TopKBenchmark();
+		double[] scores = benchmark.makeScores(numDocs, SEED);
+
+		System.out.println("k        queue ms  collector ms  speedup  same scores");
+		for (int k: K_VALUES)
+		{
+			int[] queueRanks = new int[k];
+			int[] collectorRanks = new int[k];
+			// the first round of each warms up the JIT
+			benchmark.timePriorityQueue(scores, k, 1, queueRanks);
+			benchmark.timeCollector(scores, k, 1, collectorRanks);
+			double queueTime = benchmark.timePriorityQueue(scores, k, rounds, queueRanks);
+			double collectorTime = benchmark.timeCollector(scores, k, rounds, collectorRanks);
+
+			// the queue keeps an arbitrary doc among ties, so only the scores of the ranks are compared
+			boolean same = true;
+			for (int i = 0; i < Math.min(k, numDocs); i++)
+			{
+				same &= (scores[queueRanks[i]] == scores[collectorRanks[i]]);
+			}
+			System.out.println(String.format("%-8d %8.2f %13.2f %8.2f  %s", k, queueTime, collectorTime, queueTime / collectorTime, same));
+		}
+	}
+
+	/*
+	 * Scored doc of the PriorityQueue, as the results were kept before TopKCollector
+	 */
+	private static class Candidate
+	{
+		private int docId;
+		private double score;
+
+		public Candidate(int docId, double score)
+		{
+			this.docId = docId;
+			this.score = score;
+		}
+	}
+
+	private static class CandidateComparator implements Comparator<Candidate>
+	{
+		@Override
+		public int compare(Candidate doc1, Candidate doc2)
+		{
+			return Double.compare(doc1.score, doc2.score);
+		}
+	}
+
+	public static final int[] K_VALUES = {10, 100, 1000, 10000};
+	public static final int DEFAULT_NUM_DOCS = 1000000;
+	public static final int DEFAULT_ROUNDS = 20;
+	public static final long SEED = 42;
+	// scores are rounded to 1/SCORE_STEPS
+	public static final int SCORE_STEPS = 1000;
+}
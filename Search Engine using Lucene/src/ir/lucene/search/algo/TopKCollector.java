@@ -0,0 +1,171 @@
+/*
+ * Author: Shivraj Nimbalkar
+ */
+
+package ir.lucene.search.algo;
+
+/*
+ * Class to keep the k best scored docs of a query in two parallel arrays, a doc id array and a score array, used
+ * as a binary min heap with the worst doc at the top. A doc is better than another if its score is higher, or the
+ * scores are equal and its doc id is lower, so the results do not depend on the order the docs are collected in.
+ * Nothing is allocated per doc or per query: the arrays are made once for k and reused after reset().
+ * The class is also in ir.lucene.generateindex: the index and search projects are built apart and neither is on the
+ * build path of the other, like their two SearchTRECtopics. Changes have to be made to both.
+ */
+public class TopKCollector
+{
+	private int[] docIds = null;
+	private double[] scores = null;
+	private int size = 0;
+	// the arrays are in rank order instead of heap order
+	private boolean sorted = false;
+
+	public TopKCollector(int k)
+	{
+		this.docIds = new int[k];
+		this.scores = new double[k];
+	}
+
+	/*
+	 * Method to empty the collector for the next query
+	 */
+	public void reset()
+	{
+		size = 0;
+		sorted = false;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isFull()
+	{
+		return size == docIds.length;
+	}
+
+	/*
+	 * Method to get the score a doc has to beat when the collector is full, the lowest score in it
+	 */
+	public double getMinScore()
+	{
+		return scores[0];
+	}
+
+	/*
+	 * Method to add a doc if the collector is not full or the doc is better than the worst one in it
+	 */
+	public void collect(int docId, double score)
+	{
+		if (sorted)
+		{
+			throw new IllegalStateException("collect after sort, call reset() first");
+		}
+		if (size < docIds.length)
+		{
+			docIds[size] = docId;
+			scores[size] = score;
+			upHeap(size++);
+		}
+		else if (size > 0 && lessThan(docIds[0], scores[0], docId, score))
+		{
+			docIds[0] = docId;
+			scores[0] = score;
+			downHeap(0, size);
+		}
+	}
+
+	/*
+	 * Method to sort the collected docs from the best to the worst in place, returns their number. Afterwards
+	 * getDocId(rank) and getScore(rank) give the docs in rank order; nothing may be collected until reset().
+	 * Calling it again keeps the order.
+	 */
+	public int sort()
+	{
+		if (sorted)
+		{
+			return size;
+		}
+		sorted = true;
+		// heap sort: the worst doc is moved behind the shrinking heap, so the array ends up best first
+		for (int end = size - 1; end > 0; end--)
+		{
+			swap(0, end);
+			downHeap(0, end);
+		}
+		return size;
+	}
+
+	/*
+	 * Method to get the doc id at position i, 0 <= i < size(); in heap order while collecting and in rank order after sort()
+	 */
+	public int getDocId(int i)
+	{
+		return docIds[i];
+	}
+
+	public double getScore(int i)
+	{
+		return scores[i];
+	}
+
+	/*
+	 * Method to check if doc 1 is worse than doc 2
+	 */
+	private static boolean lessThan(int docId1, double score1, int docId2, double score2)
+	{
+		return (score1 < score2) || (score1 == score2 && docId1 > docId2);
+	}
+
+	private void upHeap(int i)
+	{
+		int docId = docIds[i];
+		double score = scores[i];
+		while (i > 0 && lessThan(docId, score, docIds[(i - 1) >>> 1], scores[(i - 1) >>> 1]))
+		{
+			docIds[i] = docIds[(i - 1) >>> 1];
+			scores[i] = scores[(i - 1) >>> 1];
+			i = (i - 1) >>> 1;
+		}
+		docIds[i] = docId;
+		scores[i] = score;
+	}
+
+	private void downHeap(int i, int heapSize)
+	{
+		int docId = docIds[i];
+		double score = scores[i];
+		while (true)
+		{
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+			{
+				break;
+			}
+			if (child + 1 < heapSize && lessThan(docIds[child + 1], scores[child + 1], docIds[child], scores[child]))
+			{
+				child++;
+			}
+			if (!lessThan(docIds[child], scores[child], docId, score))
+			{
+				break;
+			}
+			docIds[i] = docIds[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		docIds[i] = docId;
+		scores[i] = score;
+	}
+
+	private void swap(int i, int j)
+	{
+		int docId = docIds[i];
+		docIds[i] = docIds[j];
+		docIds[j] = docId;
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+}